@@ -0,0 +1,52 @@
+package Benchmark;
+
+import java.util.*;
+
+// Minimal JMH-style harness: timed warmup iterations, then measured iterations,
+// reported as average time per operation. Tunable with -Dbench.warmup,
+// -Dbench.iterations and -Dbench.millis.
+public final class Bench {
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final long MILLIS = Long.getLong("bench.millis", 500);
+
+    // results are folded in here so the JIT cannot drop the measured work
+    public static volatile long sink;
+
+    public interface Body {
+        long run() throws Exception;
+    }
+
+    private Bench() {
+    }
+
+    // body performs opsPerCall operations per invocation
+    public static void run(String name, int opsPerCall, Body body) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            iteration(opsPerCall, body);
+        }
+        double[] nsPerOp = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            nsPerOp[i] = iteration(opsPerCall, body);
+        }
+        Arrays.sort(nsPerOp);
+        double mean = Arrays.stream(nsPerOp).average().orElse(0);
+        System.out.printf("%-40s %12.1f ns/op  [%.1f .. %.1f]  %,14.0f ops/s%n",
+                name, mean, nsPerOp[0], nsPerOp[nsPerOp.length - 1], 1e9 / mean);
+    }
+
+    private static double iteration(int opsPerCall, Body body) throws Exception {
+        long deadline = System.nanoTime() + MILLIS * 1_000_000;
+        long ops = 0;
+        long acc = 0;
+        long start = System.nanoTime();
+        long now;
+        do {
+            acc += body.run();
+            ops += opsPerCall;
+            now = System.nanoTime();
+        } while (now < deadline);
+        sink += acc;
+        return (double) (now - start) / ops;
+    }
+}
@@ -0,0 +1,74 @@
+package Benchmark;
+
+import ServerSide.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Join/leave storm against the sharded RoomManager. Every step moves a client to another
+// room (a leave plus a join). Run with different -Dchat.roomShards to see how throughput
+// follows the number of shards and cores.
+public class JoinLeaveStress {
+    private static final int ROOMS = Integer.getInteger("bench.rooms", 1000);
+    private static final int CLIENTS_PER_THREAD = Integer.getInteger("bench.clients", 200);
+    private static final int MOVES = Integer.getInteger("bench.moves", 100);
+
+    public static void main(String[] args) throws Exception {
+        // one in-memory client sends far faster than the default flood control allows
+        System.setProperty("chat.rateMessages", "0");
+        System.setProperty("chat.rateBytes", "0");
+        // one room per client, so every /join is a move: leave the old room, join the new one
+        System.setProperty("chat.maxRoomsPerClient", "1");
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("shards=" + ServerConfig.ROOM_SHARDS + " cores=" + cores);
+        for (int threads = 1; threads <= cores * 2; threads *= 2) {
+            run(threads, threads == 1);
+            System.out.printf("threads=%d  %,.0f moves/s%n", threads, run(threads, false));
+        }
+    }
+
+    private static double run(int threads, boolean warmup) throws Exception {
+        List<List<ClientHandler>> clients = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            List<ClientHandler> own = new ArrayList<>();
+            for (int c = 0; c < CLIENTS_PER_THREAD; c++) {
+                ClientHandler client = new ClientHandler(new NullConnection());
+                client.onLine("stress-" + warmup + "-" + threads + "-" + t + "-" + c);
+                own.add(client);
+            }
+            clients.add(own);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> done = new ArrayList<>();
+        for (List<ClientHandler> own : clients) {
+            done.add(pool.submit(() -> {
+                start.await();
+                Random random = new Random();
+                for (int m = 0; m < MOVES; m++) {
+                    for (ClientHandler client : own) {
+                        client.onLine("/join room-" + random.nextInt(ROOMS));
+                    }
+                }
+                return null;
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : done) {
+            f.get();
+        }
+        RoomManager.sync().get();
+        long elapsed = System.nanoTime() - begin;
+        pool.shutdown();
+        // the server logs every disconnect, keep that out of the results
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (List<ClientHandler> own : clients) {
+            own.forEach(client -> client.onLine("/exit"));
+        }
+        RoomManager.sync().get();
+        System.setOut(console);
+        return (double) threads * CLIENTS_PER_THREAD * MOVES / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,46 @@
+package Benchmark;
+
+import ServerSide.*;
+import java.util.concurrent.atomic.*;
+
+// In-memory stand-in for a client socket: encodes like a real connection would,
+// then only counts what would have been written.
+public class NullConnection implements Connection {
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private volatile boolean binary = false;
+    private volatile boolean closed = false;
+
+    public void send(OutboundMessage message) {
+        messages.increment();
+        bytes.add(message.length(binary));
+    }
+
+    public void switchToBinary() {
+        binary = true;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public int backlog() {
+        return 0;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+}
@@ -0,0 +1,118 @@
+package Benchmark;
+
+import ServerSide.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Micro benchmarks for the server hot paths, driven through in-memory connections:
+// room fan-out, roster building, RoomManager under contention and command dispatch.
+// Run with "ant bench" or java -cp dist/JarkomGUI.jar Benchmark.ServerBenchmarks.
+public class ServerBenchmarks {
+    private static int users = 0;
+
+    public static void main(String[] args) throws Exception {
+        // one in-memory client sends far faster than the default flood control allows
+        System.setProperty("chat.rateMessages", "0");
+        System.setProperty("chat.rateBytes", "0");
+        // one room per client, so every /join is a move: leave the old room, join the new one
+        System.setProperty("chat.maxRoomsPerClient", "1");
+        // the server logs every disconnect, keep that out of the results
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int members : new int[] {10, 100, 1000}) {
+                ChatRoom room = roomWith(members);
+                run(console, "broadcast fan-out, " + members + " members", 1, () -> {
+                    room.broadcast("bench: hello everyone");
+                    return members;
+                });
+            }
+            for (int members : new int[] {10, 100, 1000}) {
+                ChatRoom room = roomWith(members);
+                run(console, "roster snapshot, " + members + " members", 1,
+                        () -> room.roster().length(false));
+            }
+            for (int members : new int[] {10, 100, 1000}) {
+                ChatRoom room = roomWith(members);
+                ClientHandler joiner = login(new NullConnection());
+                run(console, "join+leave, " + members + " members", 1, () -> {
+                    room.memberJoined(joiner);
+                    room.memberLeft(joiner);
+                    return room.getMemberCount();
+                });
+            }
+            for (int threads : new int[] {1, 4}) {
+                roomManagerContention(console, threads);
+            }
+            ClientHandler client = login(new NullConnection());
+            run(console, "dispatch /help", 1, () -> {
+                client.onLine("/help");
+                return 1;
+            });
+            run(console, "dispatch /rooms", 1, () -> {
+                client.onLine("/rooms");
+                return 1;
+            });
+            run(console, "dispatch unknown command", 1, () -> {
+                client.onLine("hello with no room");
+                return 1;
+            });
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    private static void run(PrintStream console, String name, int ops, Bench.Body body) throws Exception {
+        PrintStream quiet = System.out;
+        System.setOut(console);
+        try {
+            Bench.run(name, ops, body);
+        } finally {
+            System.setOut(quiet);
+        }
+    }
+
+    // RoomManager.join/leave from several threads at once, through the shard executors
+    private static void roomManagerContention(PrintStream console, int threads) throws Exception {
+        int batch = 1000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<ClientHandler> clients = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            clients.add(login(new NullConnection()));
+        }
+        run(console, "RoomManager join/leave, " + threads + " threads", threads * batch, () -> {
+            List<Future<?>> done = new ArrayList<>();
+            for (ClientHandler client : clients) {
+                done.add(pool.submit(() -> {
+                    for (int i = 0; i < batch; i++) {
+                        client.onLine("/join contention-" + (i & 63));
+                    }
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+            RoomManager.sync().get();
+            return done.size();
+        });
+        clients.forEach(client -> client.onLine("/exit"));
+        pool.shutdown();
+    }
+
+    private static ChatRoom roomWith(int members) {
+        ClientHandler owner = login(new NullConnection());
+        ChatRoom room = new ChatRoom("bench-" + members, owner);
+        room.memberJoined(owner);
+        for (int i = 1; i < members; i++) {
+            room.memberJoined(login(new NullConnection()));
+        }
+        return room;
+    }
+
+    private static ClientHandler login(Connection connection) {
+        ClientHandler client = new ClientHandler(connection);
+        client.onLine("bench-user-" + users++);
+        return client;
+    }
+}
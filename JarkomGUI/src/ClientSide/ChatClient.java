@@ -1,68 +1,304 @@
 package ClientSide;
 
+import Protocol.*;
 import java.io.*;
 import java.net.*;
-import java.util.Scanner;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ChatClient {
     private static final String SERVER_IP = "localhost";//tolong diganti dengan ip server
     private static final int PORT = 1234;
+    // -Dchat.protocol=binary speaks length-prefixed frames instead of text lines
+    private static final boolean BINARY = "binary".equalsIgnoreCase(System.getProperty("chat.protocol"));
+    private static final int MAX_FRAME = 1 << 20;
     private static final AtomicBoolean running = new AtomicBoolean(true);
+    private static final CountDownLatch exited = new CountDownLatch(1);
     private static PrintWriter out;
     private static BufferedReader in;
-    private static Room room;
+    private static InputStream binaryIn;
+    private static OutputStream binaryOut;
+    // one window per joined room, all fed from this one connection by room name
+    private static final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    // the window focused last, it shows what belongs to no room
+    private static volatile Room activeRoom;
+    // the room selector waiting for a room list the receiver reads
+    private static volatile CompletableFuture<String> roomListRequest;
     private static Thread receiverThread;
+    // handed out by the server once we are in a room, used to get back in after a drop
+    private static volatile String resumeToken;
+    private static final int RECONNECT_ATTEMPTS = 30;
 
     public static void main(String[] args) {
         try (
             Socket socket = new Socket(SERVER_IP, PORT);
             
         ) {
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            
-            in.readLine();
+            openStreams(socket);
             UsernameSubmit.getUsername();
-            while(running.get()){
-            
-            }
+            // the receiver and the Swing threads do the work, main only waits for /exit
+            exited.await();
         } catch (IOException e) {
             System.err.println("Client errorm: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         
     }
 
+    // reads the username prompt and switches to frames if asked to
+    private static void openStreams(Socket socket) throws IOException {
+        out = new PrintWriter(socket.getOutputStream(), true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+
+        in.readLine();
+        if (BINARY) {
+            out.println(Opcode.NEGOTIATE);
+            binaryIn = new BufferedInputStream(socket.getInputStream());
+            binaryOut = new BufferedOutputStream(socket.getOutputStream());
+            FrameReader.read(binaryIn, MAX_FRAME);
+        }
+    }
+
+    // the server went away while we were in rooms: come back as the same user in the same
+    // rooms with one "/resume" instead of logging in and joining again
+    private static boolean reconnect() {
+        if (resumeToken == null) {
+            return false;
+        }
+        System.out.println("Disconnected from server, reconnecting...");
+        for (int attempt = 0; attempt < RECONNECT_ATTEMPTS && running.get(); attempt++) {
+            try {
+                Thread.sleep(1000);
+                Socket socket = new Socket(SERVER_IP, PORT);
+                openStreams(socket);
+                if (!usernameVerified("/resume " + resumeToken)) {
+                    socket.close();
+                    return false;
+                }
+                rooms.values().forEach(Room::reconnected);
+                return true;
+            } catch (IOException e) {
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
     private static void startReceiverThread() {
         receiverThread = new Thread(() -> {
-            try {
-                String serverMessage;
-                while (running.get() && (serverMessage = in.readLine()) != null) {
-                    if (serverMessage.startsWith("kickOut")){
-                        room.exit();
-                        room= null;
-                        break;
+            do {
+                receive();
+            } while (running.get() && !rooms.isEmpty() && reconnect());
+        });
+        receiverThread.start();
+    }
+
+    private static void receive() {
+        try {
+            if (BINARY) {
+                receiveFrames();
+                return;
+            }
+            String serverMessage;
+            while (running.get() && (serverMessage = in.readLine()) != null) {
+                if (serverMessage.startsWith("kickOut")){
+                    closeRoom(serverMessage.substring(serverMessage.lastIndexOf(' ') + 1));
+                }
+                else if (serverMessage.startsWith("Members:")){
+                    String[] parts = serverMessage.split(" ", 3);
+                    List<String> members = new ArrayList<>();
+                    serverMessage = in.readLine();
+                    while(!serverMessage.equals("done")){
+                        if (!serverMessage.isEmpty()) members.add(serverMessage);
+                        serverMessage = in.readLine();
                     }
-                    if (serverMessage.startsWith("Members:")){
-                        String members ="" ;
-                        do{
-                            members+=serverMessage+"\n";
-                            serverMessage = in.readLine();
-                        }while(!serverMessage.equals("done"));
-                        room.listMembers(members);
+                    Room room = rooms.get(parts[2]);
+                    if (room != null) room.listMembers(Long.parseLong(parts[1]), members);
+                }
+                else if (serverMessage.startsWith("History ")){
+                    String[] parts = serverMessage.split(" ", 4);
+                    List<String> lines = new ArrayList<>();
+                    for (int n = Integer.parseInt(parts[2]); n > 0; n--) {
+                        lines.add(in.readLine());
                     }
-                    else{
-                        room.addMessage(serverMessage);
+                    Room room = rooms.get(parts[3]);
+                    if (room != null) room.historyPage(Long.parseLong(parts[1]), lines);
+                }
+                else if (serverMessage.startsWith("Resume ")){
+                    resumeToken = serverMessage.substring(7);
+                }
+                else if (serverMessage.startsWith("Roster ")){
+                    String[] parts = serverMessage.split(" ", 4);
+                    applyDelta(parts[2], Long.parseLong(parts[1]), parts[3].charAt(0) == '+', parts[3].substring(1));
+                }
+                else if (serverMessage.startsWith("Available rooms:")){
+                    StringBuilder sb = new StringBuilder();
+                    while(!serverMessage.equals("done")){
+                        sb.append(serverMessage).append('\n');
+                        serverMessage = in.readLine();
                     }
+                    roomList(sb.toString());
                 }
-            } catch (IOException e) {
-                if (running.get()) {
-                    System.out.println(e.getMessage());
-                    System.out.println("Disconnected from server.");
+                else{
+                    text(serverMessage);
                 }
             }
-        });
-        receiverThread.start();
+        } catch (IOException e) {
+            if (running.get()) {
+                System.out.println(e.getMessage());
+                System.out.println("Disconnected from server.");
+            }
+        }
+    }
+
+    // the room of a frame is its first field where it always had one, otherwise its last
+    private static void receiveFrames() throws IOException {
+        FrameReader frame;
+        while (running.get() && (frame = FrameReader.read(binaryIn, MAX_FRAME)) != null) {
+            switch (frame.opcode()) {
+                case Opcode.KICK -> {
+                    frame.string();
+                    closeRoom(frame.string());
+                }
+                case Opcode.ROSTER -> {
+                    long version = frame.varint();
+                    List<String> members = new ArrayList<>();
+                    for (long n = frame.varint(); n > 0; n--) {
+                        members.add(frame.string());
+                    }
+                    Room room = rooms.get(frame.string());
+                    if (room != null) room.listMembers(version, members);
+                }
+                case Opcode.ROSTER_DELTA -> {
+                    long version = frame.varint();
+                    boolean joined = frame.varint() == 1;
+                    String username = frame.string();
+                    applyDelta(frame.string(), version, joined, username);
+                }
+                case Opcode.MESSAGE -> {
+                    String name = frame.string();
+                    show(rooms.get(name), "[" + name + "] " + frame.string());
+                }
+                case Opcode.HISTORY -> {
+                    String name = frame.string();
+                    long first = frame.varint();
+                    List<String> lines = new ArrayList<>();
+                    for (long n = frame.varint(); n > 0; n--) {
+                        frame.varint();
+                        lines.add("[" + name + "] " + frame.string());
+                    }
+                    Room room = rooms.get(name);
+                    if (room != null) room.historyPage(first, lines);
+                }
+                case Opcode.ROOM_LIST -> roomList(formatRoomList(frame));
+                case Opcode.RESUME_TOKEN -> resumeToken = frame.string();
+                case Opcode.DIRECT -> {
+                    String from = frame.string();
+                    show(null, "[PM from " + from + "] " + frame.string());
+                }
+                case Opcode.DIRECT_ACK -> {
+                    long id = frame.varint();
+                    String to = frame.string();
+                    show(null, "[PM to " + to + "] message " + id + " " + frame.string());
+                }
+                default -> text(frame.string());
+            }
+        }
+    }
+
+    // a line without a room field: chat lines and join/leave notices name their room
+    private static void text(String line) {
+        if (line.startsWith("Left room: ")) {
+            closeRoom(line.substring(11));
+        } else if (line.startsWith("Joined room: ")) {
+            show(rooms.get(line.substring(13)), line);
+        } else if (line.startsWith("[") && line.indexOf("] ") > 0) {
+            show(rooms.get(line.substring(1, line.indexOf("] "))), line);
+        } else {
+            show(null, line);
+        }
+    }
+
+    private static void show(Room room, String line) {
+        Room target = room != null ? room : activeRoom;
+        if (target != null) {
+            target.addMessage(line);
+        } else {
+            System.out.println(line);
+        }
+    }
+
+    private static void roomList(String list) {
+        CompletableFuture<String> request = roomListRequest;
+        roomListRequest = null;
+        if (request == null || !request.complete(list)) {
+            show(null, list);
+        }
+    }
+
+    private static void applyDelta(String name, long version, boolean joined, String username) {
+        Room room = rooms.get(name);
+        if (room != null && !room.memberDelta(version, joined, username)) {
+            // missed an update, ask for a full snapshot
+            processUserInput(name, "/members");
+        }
+    }
+
+    private static String formatRoomList(FrameReader frame) throws IOException {
+        StringBuilder sb = new StringBuilder("Available rooms:\n");
+        for (long n = frame.varint(); n > 0; n--) {
+            String name = frame.string();
+            long count = frame.varint();
+            sb.append("- ").append(name).append(" (")
+                .append(count).append(" user").append(count != 1 ? "s" : "")
+                .append(")\n");
+        }
+        if (frame.hasRemaining()) {
+            String prefix = frame.string();
+            long next = frame.varint();
+            if (next > 0) sb.append("more: /rooms ").append(prefix.isEmpty() ? "*" : prefix).append(' ').append(next).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void sendFrame(FrameWriter frame) throws IOException {
+        binaryOut.write(frame.toBytes());
+        binaryOut.flush();
+    }
+
+    private static void send(String input) throws IOException {
+        if (!BINARY) {
+            out.println(input);
+        } else if (input.startsWith("/to ")) {
+            int space = input.indexOf(' ', 4);
+            sendFrame(new FrameWriter(Opcode.TO_ROOM).string(input.substring(4, space)).string(input.substring(space + 1)));
+        } else if (input.startsWith("/join ")) {
+            sendFrame(new FrameWriter(Opcode.JOIN).string(input.substring(6).trim()));
+        } else if (input.equals("/leave")) {
+            sendFrame(new FrameWriter(Opcode.LEAVE));
+        } else if (input.equals("/rooms")) {
+            sendFrame(new FrameWriter(Opcode.ROOM_LIST_REQUEST));
+        } else if (input.startsWith("/rooms ")) {
+            String[] parts = input.substring(7).trim().split("\\s+");
+            String prefix = parts[0].equals("*") ? "" : parts[0];
+            try {
+                int page = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+                sendFrame(new FrameWriter(Opcode.ROOM_LIST_REQUEST).string(prefix).varint(page));
+            } catch (NumberFormatException e) {
+                sendFrame(new FrameWriter(Opcode.COMMAND).string(input));
+            }
+        } else if (input.equals("/members")) {
+            sendFrame(new FrameWriter(Opcode.ROSTER_REQUEST));
+        } else if (input.equalsIgnoreCase("/exit")) {
+            sendFrame(new FrameWriter(Opcode.EXIT));
+        } else if (input.startsWith("/")) {
+            sendFrame(new FrameWriter(Opcode.COMMAND).string(input));
+        } else {
+            sendFrame(new FrameWriter(Opcode.SAY).string(input));
+        }
     }
 
     public static void processUserInput(String input) {
@@ -72,23 +308,45 @@ public class ChatClient {
             } else if (input.equalsIgnoreCase("/help")) {
                 printHelp();
             } else {
-                out.println(input);
+                send(input);
             }
         }catch(Exception e){
         }
     }
 
-    private static void shutdown() {
+    // typed in a room's window: /join opens another window, /msg is shown there and the
+    // rest goes to that room
+    public static void processUserInput(String room, String input) {
+        if (input.startsWith("/join ")) {
+            enterRoom(input.substring(6).trim());
+        } else if (input.startsWith("/msg ")) {
+            String[] parts = input.substring(5).trim().split(" ", 2);
+            if (parts.length == 2) show(rooms.get(room), "[PM to " + parts[0] + "] " + parts[1]);
+            processUserInput(input);
+        } else if (input.equalsIgnoreCase("/exit") || input.equalsIgnoreCase("/help") || input.startsWith("/rooms")) {
+            processUserInput(input);
+        } else {
+            processUserInput("/to " + room + " " + input);
+        }
+    }
+
+    private static void shutdown() throws IOException {
         running.set(false);
-        out.println("/exit");
+        try {
+            send("/exit");
+        } finally {
+            exited.countDown();
+        }
     }
 
     private static void printHelp() {
         System.out.println("""
             Available Commands:
-            /join [room]  - Join or create a room
+            /join [room]  - Join or create a room, in a window of its own
             /leave        - Leave current room
-            /rooms        - List all rooms and user count
+            /rooms [prefix] [page] - List rooms and user count, * for any name
+            /history [before] [count] - Show older messages (scrolling up does this too)
+            /msg [user] [message] - Send to one user, they get it later if they are away
             /kick [user]  - (Owner only) Kick a user from the room
             /close        - (Owner only) Close and delete the current room
             /help         - Show this help message
@@ -97,26 +355,57 @@ public class ChatClient {
     }
     public static boolean usernameVerified(String username){
         if (username.trim().equals("")) return false;
-        String serverMessage="";
+        Boolean accepted = submitUsername(username);
+        if (accepted == null && !username.startsWith("/resume ")) {
+            // the server hung up, e.g. the name took longer to type than its handshake deadline
+            try {
+                openStreams(new Socket(SERVER_IP, PORT));
+                accepted = submitUsername(username);
+            } catch (IOException e) {
+                System.err.println("Client error: " + e.getMessage());
+            }
+        }
+        return accepted != null && accepted;
+    }
+
+    // null when the connection is gone instead of an answer
+    private static Boolean submitUsername(String username) {
         try {
+            if (BINARY) {
+                sendFrame(new FrameWriter(Opcode.LOGIN).string(username));
+                FrameReader frame = FrameReader.read(binaryIn, MAX_FRAME);
+                return frame == null ? null : frame.opcode() != Opcode.PROMPT;
+            }
             out.println(username);
-            serverMessage = in.readLine();
+            String serverMessage = in.readLine();
+            return serverMessage == null ? null : !serverMessage.equals("Enter your username:");
         } catch (IOException e) {
-            System.out.println("ana");
+            return null;
         }
-        if (serverMessage.equals("Enter your username:")){
-            //System.out.println("retry");
-            return false;
-        }
-//        else{
-//            System.out.println("Success");
-//        }
-        return true;
     }
     public static String listRooms(){
+        if (receiverThread != null && receiverThread.isAlive()) {
+            CompletableFuture<String> request = new CompletableFuture<>();
+            roomListRequest = request;
+            processUserInput("/rooms");
+            try {
+                return request.get(5, TimeUnit.SECONDS);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                return "";
+            }
+        }
         processUserInput("/rooms");
         String roomList="";
         try {
+            if (BINARY) {
+                FrameReader frame;
+                while ((frame = FrameReader.read(binaryIn, MAX_FRAME)) != null) {
+                    if (frame.opcode() == Opcode.ROOM_LIST) {
+                        return formatRoomList(frame);
+                    }
+                }
+                return roomList;
+            }
             String serverMessage=in.readLine();
             do{
                 //System.out.println(serverMessage);
@@ -129,11 +418,31 @@ public class ChatClient {
         //System.out.println("anoa");
         return roomList;
     }
+    // room names have no spaces, the server says so when one does
     public static void enterRoom(String roomName){
-        room = new Room(roomName);
-        Room.enterRoom(room);
-        startReceiverThread();
+        if (!roomName.isEmpty() && !roomName.contains(" ")) {
+            Room room = rooms.computeIfAbsent(roomName, Room::new);
+            activeRoom = room;
+            Room.enterRoom(room);
+        }
+        if (receiverThread == null || !receiverThread.isAlive()) {
+            startReceiverThread();
+        }
         processUserInput("/join "+roomName);
-        processUserInput("/members");
+    }
+
+    public static void roomFocused(Room room){
+        activeRoom = room;
+    }
+
+    // left, kicked or closed; the room selector comes back once no room is left
+    public static void closeRoom(String roomName){
+        Room room = rooms.remove(roomName);
+        if (room == null) return;
+        if (activeRoom == room) {
+            activeRoom = rooms.values().stream().findAny().orElse(null);
+        }
+        room.close();
+        if (rooms.isEmpty()) RoomSelector.makeScreen();
     }
 }
\ No newline at end of file
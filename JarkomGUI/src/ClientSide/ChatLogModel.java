@@ -0,0 +1,43 @@
+package ClientSide;
+
+import java.util.*;
+import javax.swing.*;
+
+// List model of a Room's chat log over a LineStore. With a fixed cell height the JList only
+// asks for the rows in view, so neither memory nor painting grows with the session.
+final class ChatLogModel extends AbstractListModel<String> {
+    private final LineStore lines;
+
+    ChatLogModel(long memoryBudget) {
+        lines = new LineStore(memoryBudget);
+    }
+
+    public int getSize() {
+        return lines.size();
+    }
+
+    public String getElementAt(int index) {
+        return lines.get(index);
+    }
+
+    // one row per line of the text
+    void add(String text) {
+        int first = lines.size();
+        for (String line : text.split("\n", -1)) {
+            lines.add(line);
+        }
+        fireIntervalAdded(this, first, lines.size() - 1);
+    }
+
+    void addFirst(List<String> older) {
+        if (older.isEmpty()) {
+            return;
+        }
+        lines.addFirst(older);
+        fireIntervalAdded(this, 0, older.size() - 1);
+    }
+
+    void close() {
+        lines.close();
+    }
+}
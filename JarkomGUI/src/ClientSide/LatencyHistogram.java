@@ -0,0 +1,87 @@
+package ClientSide;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+// Log-linear latency histogram in the spirit of HdrHistogram: every power of two is split
+// into 128 linear sub-buckets (under 1% relative error). Recording is one atomic increment,
+// no allocation, and safe from any number of threads.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 - SUB_BITS;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS * SUB_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(index(nanos));
+        total.incrementAndGet();
+        long seen;
+        while (nanos > (seen = max.get()) && !max.compareAndSet(seen, nanos)) {
+        }
+    }
+
+    private static int index(long value) {
+        int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1);
+        int sub = (int) (value >>> bucket);
+        // values below SUB_COUNT land in bucket 0 exactly; above, sub is in [SUB_COUNT/2, SUB_COUNT)
+        return bucket * SUB_COUNT + sub;
+    }
+
+    private static long valueAt(int index) {
+        int bucket = index / SUB_COUNT;
+        long sub = index % SUB_COUNT;
+        // upper edge of the sub-bucket, so percentiles never under-report
+        return ((sub + 1) << bucket) - 1;
+    }
+
+    public long getTotalCount() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long valueAtPercentile(double percentile) {
+        long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(valueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+
+    // percentile distribution in HdrHistogram's text layout, values in milliseconds
+    public void outputPercentileDistribution(PrintStream out) {
+        out.printf("%12s %14s %10s %14s%n", "Value(ms)", "Percentile", "TotalCount", "1/(1-Percentile)");
+        long count = total.get();
+        for (double p : new double[] {0, 50, 75, 90, 95, 99, 99.5, 99.9, 99.95, 99.99, 100}) {
+            long value = p == 100 ? max.get() : valueAtPercentile(p);
+            long below = (long) Math.ceil(p / 100.0 * count);
+            String inverse = p == 100 ? "" : String.format("%.2f", 1 / (1 - p / 100.0));
+            out.printf("%12.3f %14.12f %10d %14s%n", value / 1e6, p / 100.0, below, inverse);
+        }
+        out.printf("#[Max = %.3f ms]%n", max.get() / 1e6);
+        out.printf("#[Total count    = %d]%n", count);
+    }
+}
@@ -0,0 +1,189 @@
+package ClientSide;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// The lines of a room's chat log as UTF-8 in chunks of up to CHUNK_LINES lines. Chunks stay
+// in memory within a byte budget; the least recently used ones go to a temp file and are
+// read back when the view scrolls to them. New messages are added at the end, pages of
+// older history at the start. Used on the EDT only.
+final class LineStore {
+    private static final int CHUNK_LINES = 512;
+    private final long memoryBudget;
+    private final List<Chunk> chunks = new ArrayList<>();
+    // position of line 0; lines added at the start get positions below it
+    private long base = 0;
+    private int size = 0;
+    private long memoryBytes = 0;
+    private long clock = 0;
+    private RandomAccessFile spill;
+
+    private static final class Chunk {
+        private final long start;
+        private int count;
+        // end offset of every line in data, both null while spilled
+        private int[] ends;
+        private byte[] data;
+        private int length;
+        private long fileOffset = -1;
+        private long lastUsed;
+
+        Chunk(long start, int capacity) {
+            this.start = start;
+            this.ends = new int[capacity];
+            this.data = new byte[capacity * 32];
+        }
+
+        void add(byte[] line) {
+            if (length + line.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + line.length));
+            }
+            System.arraycopy(line, 0, data, length, line.length);
+            length += line.length;
+            ends[count++] = length;
+        }
+
+        long bytes() {
+            return data == null ? 0 : data.length + ends.length * 4L;
+        }
+    }
+
+    LineStore(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String get(int index) {
+        long position = base + index;
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (chunks.get(mid).start <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        Chunk chunk = load(chunks.get(low));
+        int line = (int) (position - chunk.start);
+        int from = line == 0 ? 0 : chunk.ends[line - 1];
+        return new String(chunk.data, from, chunk.ends[line] - from, StandardCharsets.UTF_8);
+    }
+
+    void add(String line) {
+        Chunk last = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (last == null || last.count == CHUNK_LINES) {
+            last = new Chunk(base + size, CHUNK_LINES);
+            chunks.add(last);
+        }
+        long before = last.bytes();
+        last.add(line.getBytes(StandardCharsets.UTF_8));
+        last.lastUsed = ++clock;
+        memoryBytes += last.bytes() - before;
+        size++;
+        trim(null);
+    }
+
+    // older lines, oldest first, in front of everything there is
+    void addFirst(List<String> lines) {
+        for (int end = lines.size(); end > 0; end -= CHUNK_LINES) {
+            int from = Math.max(0, end - CHUNK_LINES);
+            Chunk chunk = new Chunk(base - (end - from), end - from);
+            for (String line : lines.subList(from, end)) {
+                chunk.add(line.getBytes(StandardCharsets.UTF_8));
+            }
+            chunk.lastUsed = ++clock;
+            base = chunk.start;
+            chunks.add(0, chunk);
+            memoryBytes += chunk.bytes();
+        }
+        size += lines.size();
+        trim(null);
+    }
+
+    void close() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+            }
+            spill = null;
+        }
+    }
+
+    // a chunk keeps its place in the file once written, lines are never changed after a
+    // chunk stops being the last one, and the last one is never spilled
+    private void trim(Chunk keep) {
+        while (memoryBytes > memoryBudget) {
+            Chunk victim = null;
+            for (int i = 0; i < chunks.size() - 1; i++) {
+                Chunk chunk = chunks.get(i);
+                if (chunk != keep && chunk.data != null && (victim == null || chunk.lastUsed < victim.lastUsed)) {
+                    victim = chunk;
+                }
+            }
+            if (victim == null || !write(victim)) {
+                return;
+            }
+            memoryBytes -= victim.bytes();
+            victim.data = null;
+            victim.ends = null;
+        }
+    }
+
+    private boolean write(Chunk chunk) {
+        if (chunk.fileOffset >= 0) {
+            return true;
+        }
+        try {
+            if (spill == null) {
+                File file = File.createTempFile("chatlog", ".spill");
+                file.deleteOnExit();
+                spill = new RandomAccessFile(file, "rw");
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(chunk.count * 4 + chunk.length);
+            DataOutputStream out = new DataOutputStream(buffer);
+            for (int i = 0; i < chunk.count; i++) {
+                out.writeInt(chunk.ends[i]);
+            }
+            out.write(chunk.data, 0, chunk.length);
+            long offset = spill.length();
+            spill.seek(offset);
+            spill.write(buffer.toByteArray());
+            chunk.fileOffset = offset;
+            return true;
+        } catch (IOException e) {
+            System.out.println("Chat log spill failed, keeping it in memory: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private Chunk load(Chunk chunk) {
+        chunk.lastUsed = ++clock;
+        if (chunk.data != null) {
+            return chunk;
+        }
+        int[] ends = new int[chunk.count];
+        byte[] data = new byte[chunk.length];
+        try {
+            byte[] block = new byte[ends.length * 4 + data.length];
+            spill.seek(chunk.fileOffset);
+            spill.readFully(block);
+            ByteBuffer.wrap(block).asIntBuffer().get(ends);
+            System.arraycopy(block, ends.length * 4, data, 0, data.length);
+        } catch (IOException e) {
+            Arrays.fill(ends, 0);
+        }
+        chunk.ends = ends;
+        chunk.data = data;
+        memoryBytes += chunk.bytes();
+        trim(chunk);
+        return chunk;
+    }
+}
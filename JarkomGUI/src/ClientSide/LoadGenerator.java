@@ -0,0 +1,193 @@
+package ClientSide;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Headless load tool: opens many loopback connections, logs them in, spreads them over
+// rooms, sends timestamped messages at a target rate and reports delivery latency.
+//
+//   java -cp JarkomGUI.jar -Dload.clients=2000 -Dload.rooms=50 -Dload.rate=5000 ClientSide.LoadGenerator
+public class LoadGenerator {
+    private static final String HOST = System.getProperty("load.host", "localhost");
+    private static final int PORT = Integer.getInteger("load.port", 1234);
+    private static final int CLIENTS = Integer.getInteger("load.clients", 100);
+    private static final int ROOMS = Integer.getInteger("load.rooms", 10);
+    // "uniform" or "zipf" (a few very busy rooms and a long tail)
+    private static final String DISTRIBUTION = System.getProperty("load.distribution", "uniform");
+    // messages per second across all clients
+    private static final int RATE = Integer.getInteger("load.rate", 1000);
+    private static final int WARMUP_SECONDS = Integer.getInteger("load.warmup", 5);
+    private static final int SECONDS = Integer.getInteger("load.seconds", 30);
+    private static final String MARKER = "lg ";
+
+    private static final LatencyHistogram histogram = new LatencyHistogram();
+    private static final LongAdder sent = new LongAdder();
+    private static final LongAdder received = new LongAdder();
+
+    private static class Session {
+        final Socket socket;
+        final BufferedReader in;
+        final OutputStream out;
+
+        Session(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        synchronized void send(String line) throws IOException {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%d clients, %d rooms (%s), %d msg/s, %ds warmup + %ds%n",
+                CLIENTS, ROOMS, DISTRIBUTION, RATE, WARMUP_SECONDS, SECONDS);
+        ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        RoomPicker picker = new RoomPicker(ROOMS, DISTRIBUTION.equalsIgnoreCase("zipf"));
+        List<Future<Session>> connecting = new ArrayList<>();
+        String run = Long.toString(System.currentTimeMillis() % 100000, 36);
+        for (int i = 0; i < CLIENTS; i++) {
+            int id = i;
+            connecting.add(threads.submit(() -> login("load-" + run + "-" + id, "load-room-" + picker.next())));
+        }
+        List<Session> sessions = new ArrayList<>();
+        for (Future<Session> f : connecting) {
+            try {
+                sessions.add(f.get());
+            } catch (ExecutionException e) {
+                System.err.println("Connect failed: " + e.getCause().getMessage());
+            }
+        }
+        System.out.println(sessions.size() + " sessions logged in");
+        for (Session session : sessions) {
+            threads.execute(() -> receive(session));
+        }
+
+        long intervalNanos = 1_000_000_000L / Math.max(1, RATE);
+        long start = System.nanoTime();
+        long warmupEnd = start + WARMUP_SECONDS * 1_000_000_000L;
+        long end = warmupEnd + SECONDS * 1_000_000_000L;
+        long next = start;
+        long nextReport = start + 1_000_000_000L;
+        boolean measuring = false;
+        long measuredSent = 0;
+        long measuredReceived = 0;
+        int turn = 0;
+        while (System.nanoTime() < end && !sessions.isEmpty()) {
+            long now = System.nanoTime();
+            if (!measuring && now >= warmupEnd) {
+                measuring = true;
+                histogram.reset();
+                measuredSent = sent.sum();
+                measuredReceived = received.sum();
+            }
+            while (next <= now) {
+                Session session = sessions.get(turn++ % sessions.size());
+                try {
+                    session.send(MARKER + System.nanoTime());
+                    sent.increment();
+                } catch (IOException e) {
+                    sessions.remove(session);
+                }
+                next += intervalNanos;
+            }
+            if (now >= nextReport) {
+                System.out.printf("%s sent=%d received=%d p99=%.3fms%n", measuring ? "run   " : "warmup",
+                        sent.sum(), received.sum(), histogram.valueAtPercentile(99) / 1e6);
+                nextReport += 1_000_000_000L;
+            }
+            long sleep = Math.min(next, nextReport) - System.nanoTime();
+            if (sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            }
+        }
+        double seconds = (System.nanoTime() - warmupEnd) / 1e9;
+        System.out.println();
+        System.out.printf("sent      %,.0f msg/s%n", (sent.sum() - measuredSent) / seconds);
+        System.out.printf("delivered %,.0f msg/s (after fan-out)%n", (received.sum() - measuredReceived) / seconds);
+        System.out.printf("p50 %.3f ms  p99 %.3f ms  p999 %.3f ms  max %.3f ms%n",
+                histogram.valueAtPercentile(50) / 1e6, histogram.valueAtPercentile(99) / 1e6,
+                histogram.valueAtPercentile(99.9) / 1e6, histogram.getMax() / 1e6);
+        System.out.println();
+        histogram.outputPercentileDistribution(System.out);
+        for (Session session : sessions) {
+            try {
+                session.send("/exit");
+                session.socket.close();
+            } catch (IOException e) {
+            }
+        }
+        threads.shutdownNow();
+    }
+
+    private static Session login(String username, String room) throws IOException {
+        Session session = new Session(new Socket(HOST, PORT));
+        session.socket.setTcpNoDelay(true);
+        session.in.readLine();
+        session.send(username);
+        String reply = session.in.readLine();
+        if (reply == null || !reply.endsWith(" connected")) {
+            session.socket.close();
+            throw new IOException("Login refused for " + username + ": " + reply);
+        }
+        session.send("/join " + room);
+        return session;
+    }
+
+    private static void receive(Session session) {
+        try {
+            String line;
+            int backfill = 0;
+            while ((line = session.in.readLine()) != null) {
+                // messages replayed on join carry old timestamps
+                if (backfill > 0) {
+                    backfill--;
+                    continue;
+                }
+                if (line.startsWith("History ")) {
+                    backfill = Integer.parseInt(line.split(" ", 4)[2]);
+                    continue;
+                }
+                int at = line.lastIndexOf(MARKER);
+                if (at < 0) {
+                    continue;
+                }
+                long now = System.nanoTime();
+                try {
+                    histogram.record(now - Long.parseLong(line.substring(at + MARKER.length()).trim()));
+                    received.increment();
+                } catch (NumberFormatException e) {
+                }
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    private static class RoomPicker {
+        private final double[] cumulative;
+        private final Random random = new Random(42);
+
+        RoomPicker(int rooms, boolean zipf) {
+            cumulative = new double[rooms];
+            double sum = 0;
+            for (int i = 0; i < rooms; i++) {
+                sum += zipf ? 1.0 / (i + 1) : 1.0;
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < rooms; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        synchronized int next() {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return index >= 0 ? index : Math.min(-index - 1, cumulative.length - 1);
+        }
+    }
+}
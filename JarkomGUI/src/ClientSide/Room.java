@@ -4,25 +4,142 @@
  */
 package ClientSide;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.swing.*;
+
 /**
  *
  * @author acer
  */
 public class Room extends javax.swing.JFrame {
+    // EDT only
+    private final Set<String> members = new LinkedHashSet<>();
+    // receiver thread only
+    private long rosterVersion = -1;
+    private static final int HISTORY_PAGE = 50;
+    // sequence of the oldest message shown; scrolling to the top asks for the page before it
+    private long oldestSequence = -1;
+    private boolean loadingHistory = false;
+    // after a reconnect the next page is the room's recent messages again, shown below
+    private boolean reconnected = false;
+    // the chat log keeps this much in memory and spills older lines to a temp file
+    private static final long LOG_MEMORY_BYTES = Long.getLong("chat.logMemoryBytes", 4L * 1024 * 1024);
+    private final ChatLogModel chatLog = new ChatLogModel(LOG_MEMORY_BYTES);
+    // lines from the receiver thread wait here and reach the log in one batch per EDT turn
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final String roomName;
 
     /**
      * Creates new form Room
      */
     
     public Room(String roomName) {
+        this.roomName = roomName;
         initComponents();
         this.RoomNameLabel.setText(roomName);
+        addWindowFocusListener(new java.awt.event.WindowAdapter() {
+            public void windowGainedFocus(java.awt.event.WindowEvent e) {
+                ChatClient.roomFocused(Room.this);
+            }
+        });
+        jScrollPane1.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting() && e.getValue() == 0) {
+                loadOlderMessages();
+            }
+        });
+    }
+    private void loadOlderMessages(){
+        if (loadingHistory || oldestSequence <= 1) return;
+        loadingHistory = true;
+        ChatClient.processUserInput(roomName, "/history " + oldestSequence + " " + HISTORY_PAGE);
+    }
+    // the first page comes with the join and goes below the log, later ones are older
+    // messages and go on top, keeping the view where it was
+    public void historyPage(long firstSequence, List<String> lines){
+        SwingUtilities.invokeLater(() -> showHistoryPage(firstSequence, lines));
+    }
+    // on the EDT, after the lines that arrived before the page
+    private void showHistoryPage(long firstSequence, List<String> lines){
+        flushPending();
+        javax.swing.JScrollBar bar = jScrollPane1.getVerticalScrollBar();
+        if (reconnected) {
+            reconnected = false;
+            if (!lines.isEmpty()) append(String.join("\n", lines));
+            if (oldestSequence < 0) oldestSequence = firstSequence;
+            return;
+        }
+        if (!lines.isEmpty() && (oldestSequence < 0 || chatLog.getSize() == 0)) {
+            append(String.join("\n", lines));
+        } else if (!lines.isEmpty()) {
+            int fromBottom = bar.getMaximum() - bar.getValue();
+            chatLog.addFirst(lines);
+            java.awt.EventQueue.invokeLater(() -> bar.setValue(bar.getMaximum() - fromBottom));
+        }
+        oldestSequence = lines.isEmpty() && oldestSequence >= 0 ? 0 : firstSequence;
+        loadingHistory = false;
+        // keep loading until the log can scroll at all, there is no scroll-up to wait for before
+        java.awt.EventQueue.invokeLater(() -> {
+            if (bar.getMaximum() <= bar.getVisibleAmount()) loadOlderMessages();
+        });
+    }
+    public void reconnected(){
+        addMessage("--- reconnected ---");
+        SwingUtilities.invokeLater(() -> {
+            reconnected = true;
+            loadingHistory = false;
+        });
     }
+    // any thread: queued, and one invokeLater is pending at most however fast lines come
     public void addMessage(String add){
-        this.ChatLogArea.setText(this.ChatLogArea.getText()+"\n"+add);
+        pending.add(add);
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flushPending);
+        }
     }
-    public void listMembers(String members){
-        this.MemberRuanganArea.setText(members);
+    private void flushPending(){
+        flushScheduled.set(false);
+        String line = pending.poll();
+        if (line == null) return;
+        StringBuilder sb = new StringBuilder();
+        for (; line != null; line = pending.poll()) sb.append(line).append('\n');
+        append(sb.substring(0, sb.length() - 1));
+    }
+    // appends on the EDT and follows the end if it was in view
+    private void append(String text){
+        javax.swing.JScrollBar bar = jScrollPane1.getVerticalScrollBar();
+        boolean atEnd = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum();
+        chatLog.add(text);
+        if (atEnd) this.ChatLogList.ensureIndexIsVisible(chatLog.getSize() - 1);
+    }
+    // the version check runs on the receiver thread, the member list changes on the EDT
+    public void listMembers(long version, Collection<String> snapshot){
+        rosterVersion = version;
+        List<String> names = new ArrayList<>(snapshot);
+        SwingUtilities.invokeLater(() -> {
+            members.clear();
+            members.addAll(names);
+            showMembers();
+        });
+    }
+    // returns false when a delta was missed and a fresh snapshot is needed
+    public boolean memberDelta(long version, boolean joined, String username){
+        if (version <= rosterVersion) return true;
+        if (version != rosterVersion + 1) return false;
+        rosterVersion = version;
+        SwingUtilities.invokeLater(() -> {
+            if (joined) members.add(username);
+            else members.remove(username);
+            showMembers();
+        });
+        return true;
+    }
+    private void showMembers(){
+        StringBuilder sb = new StringBuilder("Members:\n");
+        for (String member : members) sb.append(member).append('\n');
+        this.MemberRuanganArea.setText(sb.toString());
     }
 
     /**
@@ -36,7 +153,7 @@ public class Room extends javax.swing.JFrame {
 
         RoomNameLabel = new javax.swing.JLabel();
         jScrollPane1 = new javax.swing.JScrollPane();
-        ChatLogArea = new javax.swing.JTextArea();
+        ChatLogList = new javax.swing.JList<>();
         SendButton = new javax.swing.JButton();
         jScrollPane2 = new javax.swing.JScrollPane();
         MessageArea = new javax.swing.JTextArea();
@@ -44,16 +161,20 @@ public class Room extends javax.swing.JFrame {
         MemberRuanganArea = new javax.swing.JTextArea();
         exitButton = new javax.swing.JButton();
 
-        setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
+        setDefaultCloseOperation(javax.swing.WindowConstants.DISPOSE_ON_CLOSE);
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            public void windowClosing(java.awt.event.WindowEvent evt) {
+                formWindowClosing(evt);
+            }
+        });
 
         RoomNameLabel.setFont(new java.awt.Font("Segoe UI Semibold", 0, 48)); // NOI18N
         RoomNameLabel.setText("[ Nama Ruangan ]");
 
-        ChatLogArea.setEditable(false);
-        ChatLogArea.setColumns(20);
-        ChatLogArea.setRows(5);
-        ChatLogArea.setText("[ Chat Log ]");
-        jScrollPane1.setViewportView(ChatLogArea);
+        ChatLogList.setModel(chatLog);
+        ChatLogList.setFixedCellHeight(18);
+        ChatLogList.setFixedCellWidth(740);
+        jScrollPane1.setViewportView(ChatLogList);
 
         SendButton.setText("Send");
         SendButton.setToolTipText("");
@@ -140,7 +261,7 @@ public class Room extends javax.swing.JFrame {
     }// </editor-fold>//GEN-END:initComponents
 
     private void SendButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_SendButtonActionPerformed
-        ChatClient.processUserInput(this.MessageArea.getText());
+        ChatClient.processUserInput(roomName, this.MessageArea.getText());
         this.MessageArea.setText("");
     }//GEN-LAST:event_SendButtonActionPerformed
 
@@ -149,12 +270,20 @@ public class Room extends javax.swing.JFrame {
     }//GEN-LAST:event_MessageAreaFocusGained
 
     private void exitButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_exitButtonActionPerformed
-        ChatClient.processUserInput("/leave");
-        RoomSelector.makeScreen();
-        this.dispose();
+        ChatClient.processUserInput(roomName, "/leave");
+        ChatClient.closeRoom(roomName);
     }//GEN-LAST:event_exitButtonActionPerformed
-    public void exit(){
-        this.exitButton.doClick();
+
+    // closing the window leaves only this room, the client stays in the others
+    private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
+        ChatClient.processUserInput(roomName, "/leave");
+        ChatClient.closeRoom(roomName);
+    }//GEN-LAST:event_formWindowClosing
+    public void close(){
+        SwingUtilities.invokeLater(() -> {
+            chatLog.close();
+            this.dispose();
+        });
     }
     /**
      * @param args the command line arguments
@@ -172,7 +301,7 @@ public class Room extends javax.swing.JFrame {
     }
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
-    private javax.swing.JTextArea ChatLogArea;
+    private javax.swing.JList<String> ChatLogList;
     private javax.swing.JTextArea MemberRuanganArea;
     private javax.swing.JTextArea MessageArea;
     private javax.swing.JLabel RoomNameLabel;
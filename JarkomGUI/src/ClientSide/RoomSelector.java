@@ -105,7 +105,7 @@ public class RoomSelector extends javax.swing.JFrame {
     }//GEN-LAST:event_roomInputFieldActionPerformed
 
     private void jButton1ActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jButton1ActionPerformed
-        if (this.roomInputField.getText().trim().equals("")) return;
+        if (this.roomInputField.getText().trim().equals("") || this.roomInputField.getText().trim().contains(" ")) return;
         ChatClient.enterRoom(this.roomInputField.getText().trim());
         this.dispose();
     }//GEN-LAST:event_jButton1ActionPerformed
@@ -86,7 +86,7 @@ public class UsernameSubmit extends javax.swing.JFrame {
             this.dispose();
         }
         else{
-            this.tryAgainLabel.setText("username taken");
+            this.tryAgainLabel.setText("username taken or has spaces");
         }
     }//GEN-LAST:event_jButton1ActionPerformed
 
@@ -0,0 +1,141 @@
+package Protocol;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reads the fields of one frame body (opcode followed by its payload).
+public class FrameReader {
+    private final byte[] body;
+    private int pos;
+    private final int end;
+    private final int length;
+
+    public FrameReader(byte[] body, int offset, int length) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Empty frame");
+        }
+        this.body = body;
+        this.pos = offset;
+        this.end = offset + length;
+        this.length = length;
+    }
+
+    // of the whole body, opcode included
+    public int length() {
+        return length;
+    }
+
+    public byte opcode() {
+        return body[pos++];
+    }
+
+    public long varint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= end) {
+                throw new EOFException("Truncated varint");
+            }
+            byte b = body[pos++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    // compared as end - pos so a length near Integer.MAX_VALUE cannot overflow past the check
+    public String string() throws IOException {
+        long length = varint();
+        if (length < 0 || length > end - pos) {
+            throw new EOFException("Truncated string");
+        }
+        int n = (int) length;
+        String value = new String(body, pos, n, StandardCharsets.UTF_8);
+        pos += n;
+        return value;
+    }
+
+    public byte[] bytes() throws IOException {
+        long length = varint();
+        if (length < 0 || length > end - pos) {
+            throw new EOFException("Truncated bytes");
+        }
+        int n = (int) length;
+        byte[] value = Arrays.copyOfRange(body, pos, pos + n);
+        pos += n;
+        return value;
+    }
+
+    public boolean hasRemaining() {
+        return pos < end;
+    }
+
+    // blocking read of the next frame, null at end of stream
+    public static FrameReader read(InputStream in, int maxLength) throws IOException {
+        long length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("Truncated frame length");
+            }
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed frame length");
+            }
+        }
+        if (length < 1 || length > maxLength) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        byte[] body = new byte[(int) length];
+        int read = 0;
+        while (read < body.length) {
+            int n = in.read(body, read, body.length - read);
+            if (n < 0) {
+                throw new EOFException("Truncated frame");
+            }
+            read += n;
+        }
+        return new FrameReader(body, 0, body.length);
+    }
+
+    // For non-blocking decoders: returns the total size (prefix + body) of the frame that
+    // starts at offset once it is fully buffered, or -1 if more bytes are needed.
+    public static int frameSize(byte[] buf, int offset, int available, int maxLength) throws IOException {
+        long length = 0;
+        int pos = offset;
+        for (int shift = 0; ; shift += 7) {
+            if (pos >= offset + available) {
+                return -1;
+            }
+            byte b = buf[pos++];
+            length |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed frame length");
+            }
+        }
+        if (length < 1 || length > maxLength) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        int total = (pos - offset) + (int) length;
+        return total <= available ? total : -1;
+    }
+
+    public static int prefixSize(byte[] buf, int offset) {
+        int n = 1;
+        while ((buf[offset++] & 0x80) != 0) {
+            n++;
+        }
+        return n;
+    }
+}
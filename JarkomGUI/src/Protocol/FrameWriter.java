@@ -0,0 +1,70 @@
+package Protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Builds one frame: varint payload length, opcode byte, then varints and
+// varint-length-prefixed UTF-8 strings or raw bytes.
+public class FrameWriter {
+    private byte[] buf = new byte[64];
+    private int size = 0;
+
+    public FrameWriter(byte opcode) {
+        put(opcode);
+    }
+
+    public FrameWriter varint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        put((byte) value);
+        return this;
+    }
+
+    public FrameWriter string(String value) {
+        return bytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public FrameWriter bytes(byte[] value) {
+        varint(value.length);
+        ensure(value.length);
+        System.arraycopy(value, 0, buf, size, value.length);
+        size += value.length;
+        return this;
+    }
+
+    public byte[] toBytes() {
+        int prefix = varintSize(size);
+        byte[] frame = new byte[prefix + size];
+        int pos = 0;
+        long value = size;
+        while ((value & ~0x7FL) != 0) {
+            frame[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[pos++] = (byte) value;
+        System.arraycopy(buf, 0, frame, pos, size);
+        return frame;
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buf[size++] = b;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+    }
+
+    static int varintSize(long value) {
+        int n = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            n++;
+        }
+        return n;
+    }
+}
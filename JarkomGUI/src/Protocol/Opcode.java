@@ -0,0 +1,40 @@
+package Protocol;
+
+// Frame types of the binary protocol. A client opts in by sending the line "/binary"
+// after the text username prompt; from then on both sides only exchange frames.
+public final class Opcode {
+    // client to server
+    public static final byte LOGIN = 1;
+    public static final byte COMMAND = 2;
+    public static final byte JOIN = 3;
+    public static final byte LEAVE = 4;
+    public static final byte SAY = 5;
+    public static final byte ROSTER_REQUEST = 6;
+    public static final byte ROOM_LIST_REQUEST = 7;
+    public static final byte EXIT = 8;
+    // room, then a chat line or command for that room instead of the active one
+    public static final byte TO_ROOM = 9;
+
+    // server to client
+    public static final byte TEXT = 16;
+    public static final byte MESSAGE = 17;
+    public static final byte ROSTER = 18;
+    public static final byte ROOM_LIST = 19;
+    public static final byte KICK = 20;
+    public static final byte PROMPT = 21;
+    public static final byte WELCOME = 22;
+    public static final byte ROSTER_DELTA = 23;
+    // room, first sequence, count, then sequence and text of each message, oldest first
+    public static final byte HISTORY = 24;
+    // token for "/resume <token>" in place of the username after a reconnect
+    public static final byte RESUME_TOKEN = 25;
+    // sender and text of a /msg
+    public static final byte DIRECT = 26;
+    // id, recipient and status (delivered, queued or refused) of a /msg this client sent
+    public static final byte DIRECT_ACK = 27;
+
+    public static final String NEGOTIATE = "/binary";
+
+    private Opcode() {
+    }
+}
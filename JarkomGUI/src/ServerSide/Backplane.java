@@ -0,0 +1,32 @@
+package ServerSide;
+
+import java.io.IOException;
+
+// Carries room broadcasts and system messages between server processes that share rooms.
+// A room delivers to its own members first, then publishes; the backplane hands what the
+// other processes published to the Subscriber, for the rooms this process subscribed to.
+public interface Backplane {
+    // topic of the system messages every process gets, never a room name
+    String SYSTEM = "";
+
+    interface Subscriber {
+        void deliver(String room, String message);
+    }
+
+    void start(Subscriber subscriber) throws IOException;
+
+    void publish(String room, String message);
+
+    // a process subscribes while it holds the room, i.e. while it has members in it
+    void subscribe(String room);
+
+    void unsubscribe(String room);
+
+    static Backplane create(String kind) {
+        return switch (kind.toLowerCase()) {
+            case "broker" -> new BrokerBackplane(ServerConfig.BROKER_ADDRESS);
+            case "local" -> new InProcessBackplane();
+            default -> throw new IllegalArgumentException("Unknown backplane " + kind);
+        };
+    }
+}
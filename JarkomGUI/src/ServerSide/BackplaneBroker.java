@@ -0,0 +1,166 @@
+package ServerSide;
+
+import Protocol.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+
+// The broker behind BrokerBackplane. Servers connect, subscribe to the rooms they hold and
+// publish batches of room messages, which the broker passes on to every other server
+// subscribed to the room and acknowledges to the publisher. Run it with
+// "java -Dchat.brokerAddress=host:port -Dchat.brokerSecret=... ServerSide.BackplaneBroker [port]"
+// and start the servers with -Dchat.backplane=broker and the same address and secret. It only
+// listens on that host's address and drops connections whose HELLO lacks the secret.
+public class BackplaneBroker {
+    static final byte HELLO = 1;
+    static final byte SUBSCRIBE = 2;
+    static final byte UNSUBSCRIBE = 3;
+    static final byte PUBLISH = 4;
+    static final byte MESSAGES = 5;
+    static final byte ACK = 6;
+    static final int MAX_FRAME = 64 * 1024 * 1024;
+    // nothing bigger is read from a server that has not said HELLO yet, nor for longer than this
+    private static final int HELLO_MAX_FRAME = 1024;
+    private static final int HELLO_TIMEOUT_MILLIS = 5000;
+    private static final int OUTBOUND_CAPACITY = 64 * 1024;
+    private static final byte[] ACK_FRAME = new FrameWriter(ACK).toBytes();
+    private static final ConcurrentMap<String, Set<Peer>> subscribers = new ConcurrentHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        if (ServerConfig.BROKER_SECRET == null || ServerConfig.BROKER_SECRET.isEmpty()) {
+            System.err.println("chat.brokerSecret must be set, the same on the broker and every server");
+            return;
+        }
+        String address = ServerConfig.BROKER_ADDRESS;
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Cluster.port(address);
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(Cluster.host(address)))) {
+            System.out.println("Backplane broker on " + server.getLocalSocketAddress());
+            while (true) {
+                Socket socket = server.accept();
+                Thread.ofVirtual().start(() -> serve(socket));
+            }
+        }
+    }
+
+    private static final class Peer {
+        private final Socket socket;
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(OUTBOUND_CAPACITY);
+        private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+        private long origin;
+
+        Peer(Socket socket) {
+            this.socket = socket;
+        }
+
+        // a server this far behind is dropped, it reconnects and subscribes again
+        void send(byte[] frame) {
+            if (!queue.offer(frame)) {
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+
+        void write() {
+            List<byte[]> batch = new ArrayList<>();
+            try {
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, 1023);
+                    for (byte[] frame : batch) {
+                        out.write(frame);
+                    }
+                    batch.clear();
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                close();
+            }
+        }
+    }
+
+    private static void serve(Socket socket) {
+        Peer peer = new Peer(socket);
+        Thread writer = Thread.ofVirtual().start(peer::write);
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HELLO_TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            FrameReader frame = FrameReader.read(in, HELLO_MAX_FRAME);
+            if (frame == null || frame.opcode() != HELLO) {
+                return;
+            }
+            peer.origin = frame.varint();
+            if (!MessageDigest.isEqual(frame.string().getBytes(StandardCharsets.UTF_8),
+                    ServerConfig.BROKER_SECRET.getBytes(StandardCharsets.UTF_8))) {
+                System.err.println("Server from " + socket.getRemoteSocketAddress() + " refused, wrong secret");
+                return;
+            }
+            socket.setSoTimeout(0);
+            System.out.println("Server connected from " + socket.getRemoteSocketAddress());
+            while ((frame = FrameReader.read(in, MAX_FRAME)) != null) {
+                switch (frame.opcode()) {
+                    case SUBSCRIBE -> subscribe(frame.string(), peer);
+                    case UNSUBSCRIBE -> unsubscribe(frame.string(), peer);
+                    case PUBLISH -> {
+                        forward(peer, frame);
+                        peer.send(ACK_FRAME);
+                    }
+                    default -> {
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+        } finally {
+            List.copyOf(peer.rooms).forEach(room -> unsubscribe(room, peer));
+            writer.interrupt();
+            System.out.println("Server disconnected from " + socket.getRemoteSocketAddress());
+        }
+    }
+
+    private static void subscribe(String room, Peer peer) {
+        peer.rooms.add(room);
+        subscribers.compute(room, (name, peers) -> {
+            Set<Peer> set = peers != null ? peers : ConcurrentHashMap.newKeySet();
+            set.add(peer);
+            return set;
+        });
+    }
+
+    private static void unsubscribe(String room, Peer peer) {
+        peer.rooms.remove(room);
+        subscribers.computeIfPresent(room, (name, peers) -> {
+            peers.remove(peer);
+            return peers.isEmpty() ? null : peers;
+        });
+    }
+
+    // encoded once with the publisher's origin added, then queued to every other subscriber
+    private static void forward(Peer from, FrameReader frame) throws IOException {
+        String room = frame.string();
+        Set<Peer> peers = subscribers.get(room);
+        if (peers == null || peers.size() == 1 && peers.contains(from)) {
+            return;
+        }
+        long count = frame.varint();
+        FrameWriter out = new FrameWriter(MESSAGES).string(room).varint(from.origin).varint(count);
+        for (long n = count; n > 0; n--) {
+            out.varint(frame.varint()).bytes(frame.bytes());
+        }
+        byte[] bytes = out.toBytes();
+        for (Peer peer : peers) {
+            if (peer != from) {
+                peer.send(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package ServerSide;
+
+import Protocol.*;
+import java.io.*;
+import java.net.*;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Shares rooms through a BackplaneBroker over one TCP connection. Published messages are
+// queued and the writer sends whatever piled up as one frame per room. The writer numbers
+// the messages as it builds the frames, so ids from this process increase in the order they
+// are sent, and frames stay in the resend list until the broker acknowledges them; after a
+// reconnect they go out again and receivers drop the messages they already delivered by id.
+// One reader runs at a time, the next connection's reader starts after the last one ended.
+public class BrokerBackplane implements Backplane {
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int MAX_BATCH = 4096;
+    // a publisher not heard from in a room for this long is forgotten there; resends only
+    // follow a reconnect, long before this, and a restarted server comes back as a new origin
+    private static final long ORIGIN_EXPIRY_MILLIS = 10 * 60 * 1000;
+    private final String host;
+    private final int port;
+    private final long origin = new SecureRandom().nextLong();
+    // only touched by the writer
+    private long nextId = 0;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+    // sent but not acknowledged yet, oldest first; the broker acknowledges frames in order
+    private final ArrayDeque<byte[]> unacked = new ArrayDeque<>();
+    // highest id delivered per room and publishing process, only updated by the reader
+    private final ConcurrentMap<String, Map<Long, Seen>> delivered = new ConcurrentHashMap<>();
+    private long nextExpiry = 0;
+    private volatile Subscriber subscriber;
+    private volatile Socket socket;
+
+    private record Message(String room, String text) {
+    }
+
+    private record Control(byte op, String room) {
+    }
+
+    private static final class Seen {
+        private long last;
+        private long at;
+    }
+
+    public BrokerBackplane(String address) {
+        this.host = Cluster.host(address);
+        this.port = Cluster.port(address);
+    }
+
+    public void start(Subscriber subscriber) throws IOException {
+        if (ServerConfig.BROKER_SECRET == null || ServerConfig.BROKER_SECRET.isEmpty()) {
+            throw new IOException("chat.brokerSecret must be set, the same as on the broker");
+        }
+        this.subscriber = subscriber;
+        subscribe(SYSTEM);
+        Thread.ofPlatform().daemon().name("backplane-writer").start(this::run);
+    }
+
+    public void publish(String room, String message) {
+        if (!queue.offer(new Message(room, message))) {
+            ServerStats.backplaneDropped.increment();
+        }
+    }
+
+    public void subscribe(String room) {
+        if (subscriptions.add(room)) {
+            control(BackplaneBroker.SUBSCRIBE, room);
+        }
+    }
+
+    public void unsubscribe(String room) {
+        if (subscriptions.remove(room)) {
+            delivered.remove(room);
+            control(BackplaneBroker.UNSUBSCRIBE, room);
+        }
+    }
+
+    // Runs on room shards, which must not block. A change that does not fit in the queue is
+    // counted and the link reconnected instead, since a reconnect sends the whole current set.
+    private void control(byte op, String room) {
+        if (queue.offer(new Control(op, room))) {
+            return;
+        }
+        ServerStats.backplaneDropped.increment();
+        System.out.println("Backplane queue full, reconnecting to resend the subscriptions");
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            Thread reader = null;
+            try (Socket socket = new Socket()) {
+                this.socket = socket;
+                socket.connect(new InetSocketAddress(host, port), 1000);
+                socket.setTcpNoDelay(true);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+                out.write(new FrameWriter(BackplaneBroker.HELLO).varint(origin)
+                        .string(ServerConfig.BROKER_SECRET).toBytes());
+                for (String room : subscriptions) {
+                    out.write(new FrameWriter(BackplaneBroker.SUBSCRIBE).string(room).toBytes());
+                }
+                synchronized (unacked) {
+                    for (byte[] frame : unacked) {
+                        out.write(frame);
+                    }
+                }
+                out.flush();
+                System.out.println("Backplane connected to " + host + ":" + port);
+                reader = Thread.ofVirtual().start(() -> read(socket));
+                writeLoop(socket, out);
+            } catch (IOException e) {
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                // the socket is closed by now, so the reader is on its way out
+                if (reader != null) {
+                    reader.join();
+                }
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void writeLoop(Socket socket, OutputStream out) throws IOException, InterruptedException {
+        List<Object> batch = new ArrayList<>();
+        Map<String, List<Message>> byRoom = new LinkedHashMap<>();
+        while (!socket.isClosed()) {
+            Object first = queue.poll(1, TimeUnit.SECONDS);
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH - 1);
+            for (Object item : batch) {
+                if (item instanceof Message message) {
+                    byRoom.computeIfAbsent(message.room(), room -> new ArrayList<>()).add(message);
+                } else if (item instanceof Control control) {
+                    out.write(new FrameWriter(control.op()).string(control.room()).toBytes());
+                }
+            }
+            for (Map.Entry<String, List<Message>> room : byRoom.entrySet()) {
+                FrameWriter frame = new FrameWriter(BackplaneBroker.PUBLISH).string(room.getKey())
+                        .varint(room.getValue().size());
+                for (Message message : room.getValue()) {
+                    frame.varint(++nextId).string(message.text());
+                }
+                byte[] bytes = frame.toBytes();
+                synchronized (unacked) {
+                    if (unacked.size() == QUEUE_CAPACITY) {
+                        unacked.pollFirst();
+                    }
+                    unacked.addLast(bytes);
+                }
+                out.write(bytes);
+            }
+            batch.clear();
+            byRoom.clear();
+            out.flush();
+        }
+        throw new IOException("Backplane connection closed");
+    }
+
+    private void read(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            FrameReader frame;
+            while ((frame = FrameReader.read(in, BackplaneBroker.MAX_FRAME)) != null) {
+                byte op = frame.opcode();
+                if (op == BackplaneBroker.ACK) {
+                    synchronized (unacked) {
+                        unacked.pollFirst();
+                    }
+                } else if (op == BackplaneBroker.MESSAGES) {
+                    receive(frame);
+                }
+                expireOrigins();
+            }
+        } catch (IOException e) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void receive(FrameReader frame) throws IOException {
+        String room = frame.string();
+        long from = frame.varint();
+        Seen seen = delivered.computeIfAbsent(room, name -> new HashMap<>()).computeIfAbsent(from, id -> new Seen());
+        seen.at = System.currentTimeMillis();
+        for (long n = frame.varint(); n > 0; n--) {
+            long id = frame.varint();
+            String text = frame.string();
+            if (id > seen.last) {
+                seen.last = id;
+                ServerStats.backplaneReceived.increment();
+                subscriber.deliver(room, text);
+            }
+        }
+    }
+
+    // runs on the reader, at most once a minute
+    private void expireOrigins() {
+        long now = System.currentTimeMillis();
+        if (now < nextExpiry) {
+            return;
+        }
+        nextExpiry = now + 60_000;
+        for (Map<Long, Seen> origins : delivered.values()) {
+            origins.values().removeIf(seen -> now - seen.at > ORIGIN_EXPIRY_MILLIS);
+        }
+        delivered.values().removeIf(Map::isEmpty);
+    }
+}
@@ -0,0 +1,47 @@
+package ServerSide;
+
+import java.util.*;
+
+public interface ChatMetricsMXBean {
+    long getActiveConnections();
+
+    int getLoggedInUsers();
+
+    long getLogins();
+
+    double getLoginsPerSecond();
+
+    int getRooms();
+
+    Map<String, Integer> getRoomMembers();
+
+    long getBroadcasts();
+
+    double getBroadcastsPerSecond();
+
+    long getDeliveries();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getMessagesQueued();
+
+    long getMessagesDropped();
+
+    long getSlowConsumersDisconnected();
+
+    double getAverageLinesPerFlush();
+
+    long getLogRecordsWritten();
+
+    long getLogRecordsDropped();
+
+    Map<String, Long> getCommandLatencyP50Micros();
+
+    Map<String, Long> getCommandLatencyP99Micros();
+
+    Map<String, Integer> getOutboundBacklog();
+
+    int getMaxOutboundBacklog();
+}
@@ -1,78 +1,202 @@
 package ServerSide;
 
+import Storage.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 
+// Every method runs on the room's shard thread (see RoomManager), so membership changes
+// and broadcasts of one room are applied in order without any locking.
 public class ChatRoom {
     private final String name;
-    private final ClientHandler owner;
+    // by username, so ownership survives a restart and the owner resuming
+    private String owner;
+    // written only by the shard thread, concurrent so getMemberCount can be read from anywhere
     private final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+    // bumped on every join/leave so clients can apply roster deltas and spot gaps
+    private long rosterVersion = 0;
+    // every broadcast gets the next number; continues the room's log if it has one
+    private long lastSequence;
+    private final RecentHistory history = new RecentHistory(ServerConfig.HISTORY_SIZE);
+    private volatile long lastActive = System.nanoTime();
+
+    public record State(String name, String owner, long lastSequence, long rosterVersion, List<String> members) {
+    }
 
     public ChatRoom(String name, ClientHandler owner) {
         this.name = name;
-        this.owner = owner;
+        this.owner = owner.getUsername();
+        this.lastSequence = MessageLog.lastSequence(name);
+    }
+
+    // a room from a snapshot, empty until its members resume
+    public ChatRoom(State state) {
+        this.name = state.name();
+        this.owner = state.owner();
+        this.lastSequence = Math.max(state.lastSequence(), MessageLog.lastSequence(name));
+        this.rosterVersion = state.rosterVersion();
+    }
+
+    // cluster mode: the room moved here from another node, keep its owner and numbering
+    void adopt(State state) {
+        owner = state.owner();
+        lastSequence = Math.max(lastSequence, state.lastSequence());
+        rosterVersion = Math.max(rosterVersion, state.rosterVersion());
     }
 
-    public synchronized void memberJoined(ClientHandler client) {
-        members.add(client);
+    public State state() {
+        return new State(name, owner, lastSequence, rosterVersion, getMemberNames());
+    }
+
+    public void memberJoined(ClientHandler client) {
+        if (!members.add(client)) {
+            return;
+        }
+        rosterVersion++;
+        RoomDirectory.update(name, members.size());
+        client.sendMessage(history.backfill(name, lastSequence + 1));
         broadcast(client.getUsername() + " joined " + name);
-        this.someOneJoined();
+        sendDelta(true, client);
+        client.sendMessage(roster());
     }
 
-    public synchronized void memberLeft(ClientHandler client) {
-        if (members.remove(client)) {
-            broadcast(client.getUsername() + " left " + name);
-            RoomManager.removeRoomIfEmpty(name);
+    public boolean memberLeft(ClientHandler client) {
+        if (!members.remove(client)) {
+            return false;
         }
+        rosterVersion++;
+        RoomDirectory.update(name, members.size());
+        broadcast(client.getUsername() + " left " + name);
+        sendDelta(false, client);
+        RoomManager.removeRoomIfEmpty(this);
+        return true;
+    }
+
+    public boolean isMember(ClientHandler client) {
+        return members.contains(client);
     }
 
     public boolean isOwner(ClientHandler user) {
-    return owner.equals(user);
-}
+        return owner.equalsIgnoreCase(user.getUsername());
+    }
 
-    public synchronized void closeRoom() {
+    public void closeRoom() {
         for (ClientHandler member : members) {
             member.sendMessage("[Room Closed] Room '" + name + "' has been closed by the owner.");
-            member.kickFromRoom();
+            member.kickFromRoom(name);
         }
         members.clear();
-        RoomManager.removeRoomIfEmpty(name);
+        RoomDirectory.update(name, 0);
+        RoomManager.removeRoomIfEmpty(this);
     }
 
-    public synchronized boolean kickUser(String username) {
+    // looked up among the members, who may be connected to another node in cluster mode
+    public boolean kickUser(String username) {
         for (ClientHandler member : members) {
-            if (member.getUsername().equalsIgnoreCase(username)) {
-                memberLeft(member);
-                member.kickFromRoom();
+            if (member.getUsername().equalsIgnoreCase(username) && memberLeft(member)) {
+                member.kickFromRoom(name);
                 return true;
             }
         }
         return false;
     }
 
+    void removeMembers(Predicate<ClientHandler> gone) {
+        for (ClientHandler member : List.copyOf(members)) {
+            if (gone.test(member)) {
+                memberLeft(member);
+            }
+        }
+    }
+
+    // delivered here, then published to the other servers sharing the room (see Backplane)
+    public void broadcast(String message) {
+        deliver(message);
+        ChatServer.backplane().publish(name, message);
+    }
 
-    public synchronized void broadcast(String message) {
-        members.removeIf(ClientHandler::isClosed);
-        members.forEach(member -> member.sendMessage("[" + name + "] " + message));
+    // a message of this room, sent from here or published by another server
+    void deliver(String message) {
+        OutboundMessage encoded = OutboundMessage.chat(name, message);
+        MessageLog.append(name, ++lastSequence, message);
+        lastActive = System.nanoTime();
+        if (history.add(lastSequence, message)) {
+            RoomManager.evictIdleHistory();
+        }
+        ServerStats.broadcasts.increment();
+        ServerStats.deliveries.add(members.size());
+        members.forEach(member -> member.sendMessage(encoded));
     }
 
     public String getName() {
         return name;
     }
 
+    // served from memory when the recent history covers the page, otherwise from the log
+    public void sendHistory(ClientHandler client, long before, int count) {
+        long end = before <= 0 || before > lastSequence ? lastSequence + 1 : before;
+        OutboundMessage page = history.page(name, end, count, !MessageLog.isEnabled());
+        if (page != null) {
+            client.sendMessage(page);
+            return;
+        }
+        MessageLog.read(name, end, count, records -> {
+            if (records == null) {
+                client.sendMessage("History is not available right now, try again");
+                return;
+            }
+            long[] sequences = new long[records.size()];
+            String[] texts = new String[records.size()];
+            for (int i = 0; i < texts.length; i++) {
+                sequences[i] = records.get(i).sequence();
+                texts[i] = records.get(i).text();
+            }
+            client.sendMessage(OutboundMessage.history(name, texts.length > 0 ? sequences[0] : end, sequences, texts));
+        });
+    }
+
+    // runs on the shard thread, when the room is removed or picked for eviction
+    void clearHistory() {
+        history.clear();
+    }
+
+    long getHistoryBytes() {
+        return history.getBytes();
+    }
+
+    long getLastActive() {
+        return lastActive;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    List<ClientHandler> getMembers() {
+        return List.copyOf(members);
+    }
+
     public int getMemberCount() {
         return members.size();
     }
-    public String getMembers(){
-        String res="";
+    public List<String> getMemberNames(){
+        List<String> names = new ArrayList<>(members.size());
         for (ClientHandler member:members){
-            res+=member.getUsername()+"\n";
+            names.add(member.getUsername());
         }
-        return res;
+        return names;
     }
-    public void someOneJoined(){
-        for(ClientHandler member:members){
-            member.listMembers();
+    // full snapshot, only sent on first join or when a client reports a gap
+    public OutboundMessage roster() {
+        return OutboundMessage.roster(name, rosterVersion, getMemberNames());
+    }
+
+    private void sendDelta(boolean joined, ClientHandler client) {
+        OutboundMessage delta = OutboundMessage.rosterDelta(name, rosterVersion, joined, client.getUsername());
+        for (ClientHandler member : members) {
+            if (member != client) {
+                member.sendMessage(delta);
+            }
         }
     }
-}
\ No newline at end of file
+}
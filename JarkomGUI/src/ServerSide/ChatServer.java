@@ -1,46 +1,159 @@
 package ServerSide;
 
+import Storage.*;
 import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
 
 public class ChatServer {
-    private static final int PORT = 1234;
-    private static final Set<ClientHandler> clients = ConcurrentHashMap.newKeySet();
-    private static final ExecutorService threadPool = Executors.newCachedThreadPool();
+    private static final int PORT = ServerConfig.PORT;
+    private static final Semaphore connectionSlots = new Semaphore(
+            ServerConfig.MAX_CONNECTIONS > 0 ? ServerConfig.MAX_CONNECTIONS : Integer.MAX_VALUE);
+    private static final Semaphore pendingLogins = new Semaphore(ServerConfig.MAX_PENDING_LOGINS);
+    private static ExecutorService threadPool;
+    private static final ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "server-timers");
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        // handshake deadlines are cancelled on almost every login, drop them right away
+        timers.setRemoveOnCancelPolicy(true);
+    }
+    private static final Backplane backplane = Backplane.create(ServerConfig.BACKPLANE);
 
     public static void main(String[] args) {
-        System.out.println("Chat Server starting...");
+        String engine = args.length > 0 ? args[0] : ServerConfig.ENGINE;
+        System.out.println("Chat Server starting (" + engine + " engine)...");
+        Metrics.start();
+        try {
+            MessageLog.start(new LogConfig(ServerConfig.LOG_DIR, ServerConfig.LOG_SEGMENT_BYTES,
+                    ServerConfig.LOG_FSYNC, ServerConfig.LOG_FSYNC_MILLIS, ServerConfig.LOG_RETENTION_BYTES,
+                    ServerConfig.LOG_RETENTION_HOURS, ServerConfig.LOG_QUEUE_CAPACITY, ServerConfig.LOG_OPEN_ROOMS));
+            RoomSnapshots.start();
+            Cluster.start();
+            backplane.start((room, message) -> {
+                if (room.equals(Backplane.SYSTEM)) {
+                    deliverSystemMessage(message);
+                } else {
+                    RoomManager.deliver(room, message);
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Startup error: " + e.getMessage());
+            return;
+        }
+
+        if (engine.equalsIgnoreCase("nio")) {
+            try {
+                new NioServer(PORT, ServerConfig.NIO_THREADS).run();
+            } catch (IOException e) {
+                System.err.println("Server error: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        threadPool = engine.equalsIgnoreCase("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newCachedThreadPool();
         
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
             while (true) {
+                if (!ServerConfig.REJECT_WHEN_FULL) {
+                    // stop accepting until a slot frees up, new clients wait in the listen backlog
+                    admitWait();
+                }
                 Socket clientSocket = serverSocket.accept();
+                if (ServerConfig.REJECT_WHEN_FULL && !tryAdmit()) {
+                    reject(clientSocket, "Server is full, try again later");
+                    continue;
+                }
+                if (!tryBeginLogin()) {
+                    released();
+                    reject(clientSocket, "Too many pending logins, try again later");
+                    continue;
+                }
                 ClientHandler clientThread = new ClientHandler(clientSocket);
-                clients.add(clientThread);
-                threadPool.execute(clientThread);
+                clientThread.holdLoginPermit();
+                ServerStats.connectionsOpened.increment();
+                threadPool.execute(() -> {
+                    try {
+                        clientThread.run();
+                    } finally {
+                        ServerStats.connectionsClosed.increment();
+                        released();
+                    }
+                });
             }
         } catch (IOException e) {
             System.err.println("Server error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             threadPool.shutdown();
         }
     }
 
+    static void execute(Runnable task) {
+        threadPool.execute(task);
+    }
+
+    static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return timers.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    static boolean tryAdmit() {
+        return connectionSlots.tryAcquire();
+    }
+
+    static void admitWait() throws InterruptedException {
+        connectionSlots.acquire();
+    }
+
+    static void released() {
+        connectionSlots.release();
+    }
+
+    // bounds sockets that are connected but have not logged in yet, so a flood of idle
+    // connections cannot tie up unbounded handshake threads or buffers
+    static boolean tryBeginLogin() {
+        return pendingLogins.tryAcquire();
+    }
+
+    static void loginFinished() {
+        pendingLogins.release();
+    }
+
+    static void reject(Socket socket, String reason) {
+        try (socket) {
+            socket.getOutputStream().write((reason + "\n").getBytes());
+        } catch (IOException e) {
+        }
+    }
+
     public static void broadcastSystemMessage(String message) {
-        clients.forEach(client -> {
+        deliverSystemMessage(message);
+        backplane.publish(Backplane.SYSTEM, message);
+    }
+
+    static void deliverSystemMessage(String message) {
+        SessionRegistry.all().forEach(client -> {
             if (!client.isClosed()&&client.inRoom()) {
                 client.sendMessage("[System] " + message);
             }
         });
     }
 
-    public static synchronized void removeClient(ClientHandler client) {
-        if (clients.remove(client)) {
-            System.out.println(client.getUsername() + " disconnected. Active clients: " + clients.size());
-        }
+    static Backplane backplane() {
+        return backplane;
     }
-    public static boolean isTaken(ClientHandler username){
-        return clients.contains(username);
+
+    public static void removeClient(ClientHandler client) {
+        if (SessionRegistry.release(client.getUsername(), client)) {
+            System.out.println(client.getUsername() + " disconnected. Active clients: " + SessionRegistry.size());
+        }
     }
 }
\ No newline at end of file
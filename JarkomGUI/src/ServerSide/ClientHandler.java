@@ -1,36 +1,184 @@
 package ServerSide;
 
+import Protocol.*;
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
 
 public class ClientHandler implements Runnable {
+    private static final int MAX_HISTORY_PAGE = 200;
+    private static final AtomicLong nextSessionId = new AtomicLong();
+    // numbers every /msg, so acknowledgements name the message they are for
+    private static final AtomicLong nextDirectId = new AtomicLong();
+    // names this client to the other nodes of a cluster
+    private final long sessionId = nextSessionId.incrementAndGet();
     private final Socket socket;
-    private PrintWriter out;
+    private Connection connection;
     private BufferedReader in;
-    private String username;
-    private ChatRoom currentRoom;
+    private InputStream rawIn;
+    // set once a blocking client negotiates the binary protocol
+    private InputStream binaryIn;
+    // volatile because the handshake deadline checks it from the timer thread
+    private volatile String username;
+    private volatile String resumeToken;
+    private boolean resumeTokenSent = false;
+    // true when the client said /exit, so its token is dropped instead of kept for a resume
+    private volatile boolean exited = false;
+    // names of the joined rooms, oldest first; the rooms themselves live on their RoomManager
+    // shards. Lines without a room tag go to the active room, the one joined last.
+    private final Set<String> rooms = Collections.synchronizedSet(new LinkedHashSet<>());
+    private volatile String activeRoom;
     private final AtomicBoolean running = new AtomicBoolean(true);
+    // null when connections are not rate limited
+    private final RateLimits limits = RateLimits.forConnection();
+    private long lastThrottleNotice = System.nanoTime() - 1_000_000_000L;
+    // holds one of ChatServer's pending-login permits until the handshake ends
+    private final AtomicBoolean loginPending = new AtomicBoolean(false);
 
+    // the handshake runs later in run(), on the handler's own thread, not on the accept loop
     public ClientHandler(Socket socket) {
         this.socket = socket;
-        try{
-            initializeStreams();
-            authenticateUser();
+    }
+
+    // used by the NIO engine: the handshake is driven by onLine instead of blocking reads
+    public ClientHandler(Connection connection) {
+        this.socket = null;
+        this.connection = connection;
+    }
+
+    // a client of another cluster node, see RemoteMember
+    ClientHandler(Connection connection, String username) {
+        this.socket = null;
+        this.connection = connection;
+        this.username = username;
+    }
+
+    public void start() {
+        connection.send(OutboundMessage.prompt());
+    }
+
+    public void onLine(String line) {
+        if (!running.get()) {
+            return;
         }
-        catch(IOException e){
-            
+        if (username == null) {
+            if (line.equals(Opcode.NEGOTIATE)) {
+                connection.switchToBinary();
+                connection.send(OutboundMessage.prompt());
+                return;
+            }
+            if (!login(line)) {
+                connection.send(OutboundMessage.prompt());
+            }
+        } else if (line.equalsIgnoreCase("/exit")) {
+            exited = true;
+            shutdown();
+        } else {
+            handleCommand(line);
+        }
+    }
+
+    void onFrame(FrameReader frame) throws IOException {
+        if (!running.get()) {
+            return;
+        }
+        byte opcode = frame.opcode();
+        if (username == null) {
+            if (opcode == Opcode.LOGIN) {
+                onLine(frame.string());
+            }
+            return;
+        }
+        // commands are limited once they reach handleCommand
+        if (opcode != Opcode.COMMAND && opcode != Opcode.TO_ROOM && opcode != Opcode.EXIT
+                && !admit(frame.length(), opcode == Opcode.SAY, activeRoom)) {
+            return;
+        }
+        long start = System.nanoTime();
+        switch (opcode) {
+            case Opcode.COMMAND -> {
+                onLine(frame.string());
+                return;
+            }
+            case Opcode.TO_ROOM -> {
+                String room = frame.string();
+                handleCommand(room, frame.string());
+                return;
+            }
+            case Opcode.JOIN -> joinRoom(frame.string().trim());
+            case Opcode.LEAVE -> leave(activeRoom);
+            case Opcode.SAY -> say(activeRoom, singleLine(frame.string()));
+            case Opcode.ROSTER_REQUEST -> listMembers(activeRoom);
+            case Opcode.ROOM_LIST_REQUEST -> {
+                String prefix = frame.hasRemaining() ? singleLine(frame.string()) : "";
+                listRooms(prefix, frame.hasRemaining() ? (int) frame.varint() : 1);
+            }
+            case Opcode.EXIT -> {
+                exited = true;
+                shutdown();
+            }
+            default -> sendMessage("Unknown frame type " + opcode);
+        }
+        ServerStats.commandHandled(frameName(opcode), start);
+    }
+
+    private static String frameName(byte opcode) {
+        return switch (opcode) {
+            case Opcode.JOIN -> "join";
+            case Opcode.LEAVE -> "leave";
+            case Opcode.SAY -> "say";
+            case Opcode.ROSTER_REQUEST -> "members";
+            case Opcode.ROOM_LIST_REQUEST -> "rooms";
+            case Opcode.EXIT -> "exit";
+            default -> "unknown";
+        };
+    }
+
+    void disconnected() {
+        shutdown();
+    }
+
+    boolean isLoggedIn() {
+        return username != null;
+    }
+
+    void loginTimedOut() {
+        if (username == null) {
+            System.out.println("Login timed out, dropping unauthenticated client");
+            shutdown();
+        }
+    }
+
+    // called by the engines for connections admitted through ChatServer.tryBeginLogin
+    void holdLoginPermit() {
+        loginPending.set(true);
+    }
+
+    private void finishLogin() {
+        if (loginPending.compareAndSet(true, false)) {
+            ChatServer.loginFinished();
         }
     }
 
     public boolean isClosed() {
-        return socket.isClosed() || !running.get();
+        return connection.isClosed() || !running.get();
     }
 
     public void run() {
         try {
-
-            processMessages();
+            initializeStreams();
+            // one deadline for the whole handshake, a read timeout would restart on every byte
+            ScheduledFuture<?> deadline = ChatServer.schedule(this::loginTimedOut,
+                    ServerConfig.HANDSHAKE_TIMEOUT_MILLIS);
+            authenticateUser();
+            deadline.cancel(false);
+            finishLogin();
+            if (username != null) {
+                processMessages();
+            }
         } catch (IOException e) {
             handleError(e);
         } finally {
@@ -39,126 +187,420 @@ public class ClientHandler implements Runnable {
     }
 
     private void initializeStreams() throws IOException {
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
+        rawIn = ServerStats.countingInput(socket.getInputStream());
+        in = new BufferedReader(new InputStreamReader(rawIn));
+        connection = new SocketConnection(socket);
     }
 
     private void authenticateUser() throws IOException {
-        boolean taken = false;
-        do{
-            out.println("Enter your username:");
-            username = in.readLine();
-            taken = ChatServer.isTaken(this);
-        } while (taken);
-        
-        out.println(username + " connected");
+        connection.send(OutboundMessage.prompt());
+        String name;
+        while ((name = readUsername()) != null && !login(name)) {
+            connection.send(OutboundMessage.prompt());
+        }
+    }
+
+    // a username, or "/resume <token>" to come back as the token's user and rejoin its rooms
+    private boolean login(String line) {
+        String name = line;
+        String token = null;
+        String joined = null;
+        if (!line.startsWith("/resume ") && !isValidName(line)) {
+            return false;
+        }
+        if (line.startsWith("/resume ")) {
+            token = line.substring(8).trim();
+            ResumeTokens.Entry entry = ResumeTokens.redeem(token);
+            if (entry == null) {
+                return false;
+            }
+            name = entry.username();
+            joined = entry.rooms();
+            ClientHandler stale = SessionRegistry.find(name);
+            if (stale != null && token.equals(stale.resumeToken)) {
+                // the old connection is dead but not noticed yet, the token proves who this is
+                joined = stale.getJoinedRooms();
+                stale.disconnected();
+            }
+        }
+        if (!SessionRegistry.reserve(name, this)) {
+            return false;
+        }
+        username = name;
+        ServerStats.logins.increment();
+        finishLogin();
+        connection.loginFinished();
+        if (token != null) {
+            ResumeTokens.attach(token, name);
+            resumeToken = token;
+        } else {
+            resumeToken = ResumeTokens.issue(name);
+        }
+        connection.send(OutboundMessage.welcome(username));
+        if (joined != null) {
+            for (String room : joined.split(" ")) {
+                joinRoom(room);
+            }
+        }
+        return true;
+    }
+
+    private String readUsername() throws IOException {
+        if (binaryIn == null) {
+            String line = in.readLine();
+            if (!Opcode.NEGOTIATE.equals(line)) {
+                return line;
+            }
+            // the client waits for the binary prompt before sending anything else,
+            // so nothing past this line is sitting in the reader's buffer
+            connection.switchToBinary();
+            binaryIn = new BufferedInputStream(rawIn);
+            connection.send(OutboundMessage.prompt());
+        }
+        FrameReader frame;
+        while ((frame = FrameReader.read(binaryIn, ServerConfig.MAX_LINE_LENGTH)) != null) {
+            if (frame.opcode() == Opcode.LOGIN) {
+                return frame.string();
+            }
+        }
+        return null;
     }
 
     private void processMessages() throws IOException {
+        if (binaryIn != null) {
+            FrameReader frame;
+            while (running.get() && (frame = FrameReader.read(binaryIn, ServerConfig.MAX_LINE_LENGTH)) != null) {
+                onFrame(frame);
+            }
+            return;
+        }
         String inputLine;
         while (running.get() && (inputLine = in.readLine()) != null) {
             if (inputLine.equalsIgnoreCase("/exit")) {
+                exited = true;
                 break;
             }
             handleCommand(inputLine);
         }
     }
 
+    // "/to <room> <line>" runs the line (chat or a command) in that room instead of the active one
     private void handleCommand(String input) {
+        if (input.startsWith("/to ")) {
+            int space = input.indexOf(' ', 4);
+            if (space < 0) {
+                sendMessage("Usage: /to <room> <message or command>");
+                return;
+            }
+            handleCommand(input.substring(4, space), input.substring(space + 1));
+        } else {
+            handleCommand(activeRoom, input);
+        }
+    }
+
+    // the timing covers parsing and handing the command to its room shard, which is the
+    // part that runs on this client's reader thread
+    private void handleCommand(String room, String input) {
+        input = singleLine(input);
+        if (!admit(utf8Length(input), !input.startsWith("/"), room)) {
+            return;
+        }
+        long start = System.nanoTime();
+        String command = dispatch(room, input);
+        ServerStats.commandHandled(command, start);
+    }
+
+    // Flood control, before a line is parsed: the connection's buckets, then for chat lines
+    // in a room the client is in the room's. Lengths are UTF-8 bytes on both protocols. False
+    // when the line is skipped. Blocking readers can be held back for DELAY, which slows the
+    // sender down through TCP; NIO connections drop instead.
+    private boolean admit(int length, boolean chat, String room) {
+        long now = System.nanoTime();
+        boolean delay = ServerConfig.RATE_ACTION == RateAction.DELAY && socket != null;
+        long wait = limits != null ? limits.acquire(length, now, delay) : 0;
+        if (chat && (wait == 0 || delay)) {
+            // only members get a room's buckets made, a line for any other name is refused later
+            RateLimits roomLimits = isIn(room) ? RateLimits.forRoom(room) : null;
+            long roomWait = roomLimits != null ? roomLimits.acquire(length, now, delay) : 0;
+            if (roomWait > 0 && !delay && limits != null) {
+                limits.refund(length);
+            }
+            wait = Math.max(wait, roomWait);
+        }
+        if (wait == 0) {
+            return true;
+        }
+        if (delay) {
+            ServerStats.throttledDelayed.increment();
+            LockSupport.parkNanos(wait);
+            return running.get();
+        }
+        if (ServerConfig.RATE_ACTION == RateAction.DISCONNECT) {
+            ServerStats.throttledDisconnected.increment();
+            sendMessage("Disconnected for sending too fast");
+            shutdown();
+            return false;
+        }
+        ServerStats.throttledDropped.increment();
+        // at most one notice a second, or the notices would be a flood of their own
+        if (now - lastThrottleNotice >= 1_000_000_000L) {
+            lastThrottleNotice = now;
+            sendMessage("You are sending too fast, messages are being dropped");
+        }
+        return false;
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private String dispatch(String room, String input) {
         if (input.startsWith("/join ")) {
             joinRoom(input.substring(6).trim());
+            return "join";
         } else if (input.equals("/leave")) {
-            if(currentRoom.isOwner(this)) currentRoom.closeRoom();
-            else leaveRoom();
-        } else if (input.equals("/rooms")) {
-            listRooms();
+            leave(room);
+            return "leave";
+        } else if (input.equals("/rooms") || input.startsWith("/rooms ")) {
+            listRooms(input.substring(6).trim());
+            return "rooms";
         } else if (input.equals("/members")){
-            listMembers();
+            listMembers(room);
+            return "members";
         }else if (input.equals("/close")) {
-            if (currentRoom != null && currentRoom.isOwner(this)) {
-                currentRoom.closeRoom();
-                currentRoom = null;
+            if (isIn(room)) {
+                RoomManager.close(room, this);
             } else {
                 sendMessage("You are not the room owner.");
             }
+            return "close";
         } else if (input.startsWith("/kick ")) {
-            if (currentRoom != null && currentRoom.isOwner(this)) {
-                String target = input.substring(6).trim();
-                boolean kicked = currentRoom.kickUser(target);
-                if (kicked) {
-                    sendMessage("User '" + target + "' has been kicked.");
-                } else {
-                    sendMessage("User not found in the room.");
-                }
+            if (isIn(room)) {
+                RoomManager.kick(room, this, input.substring(6).trim());
             } else {
                 sendMessage("Only room owners can kick users.");
             }
+            return "kick";
+        } else if (input.startsWith("/msg ")) {
+            directMessage(input.substring(5).trim());
+            return "msg";
+        } else if (input.equals("/history") || input.startsWith("/history ")) {
+            history(room, input.substring(8).trim());
+            return "history";
         } else if (input.equals("/help")) {
             sendMessage("""
                 Commands:
-        /join [room] - Join or create a room
+        /join [room] - Join or create a room, you stay in the rooms you are in
         /leave       - Leave current room
-        /rooms       - List all rooms
+        /to [room] [message or command] - Send to one of your rooms
+        /msg [user] [message] - Send to one user, kept for them if they are away
+        /rooms [prefix] [page] - List rooms, * for any name
+        /history [before] [count] - Show older messages of the room
         /kick [user] - (Owner only) Kick user from room
         /close       - (Owner only) Close and delete room
         /exit        - Exit the chat
         /help        - Show this help message
         """);
-        } else if (currentRoom != null) {
-            currentRoom.broadcast(username + ": " + input);
+            return "help";
+        } else {
+            say(room, input);
+            return "say";
+        }
+    }
+
+    private void say(String room, String text) {
+        if (isIn(room)) {
+            RoomManager.broadcast(room, this, username + ": " + text);
         } else {
             sendMessage("You must join a room first (/join roomname)");
         }
     }
 
 
+    // Adds the room to the ones the client is in and makes it the active one. Past
+    // chat.maxRoomsPerClient rooms the one joined first is left to make space.
     private void joinRoom(String roomName) {
         if(roomName.isEmpty()){
             sendMessage("Room name cannot be empty");
             return;
         }
+        if (roomName.chars().anyMatch(c -> Character.isWhitespace(c) || Character.isISOControl(c))) {
+            sendMessage("Room name cannot contain spaces");
+            return;
+        }
 
-        if (currentRoom != null) {
-            currentRoom.memberLeft(this);
-            sendMessage("Left room: " + currentRoom.getName());
+        String previous = null;
+        synchronized (rooms) {
+            if (!rooms.add(roomName)) {
+                activeRoom = roomName;
+                return;
+            }
+            if (rooms.size() > ServerConfig.MAX_ROOMS_PER_CLIENT) {
+                previous = rooms.iterator().next();
+                rooms.remove(previous);
+            }
+            activeRoom = roomName;
+        }
+        if (previous != null) {
+            RoomManager.leave(previous, this, "Left room: " + previous);
+        }
+        RoomManager.join(roomName, this);
+        // sent once the client is in a room, when its receiver is listening for it
+        if (!resumeTokenSent) {
+            resumeTokenSent = true;
+            sendMessage(OutboundMessage.resumeToken(resumeToken));
         }
-        currentRoom = RoomManager.getOrCreateRoom(roomName, this);
-        sendMessage("Joined room: " + roomName);
-        currentRoom.memberJoined(this);
+        deliverOffline();
+    }
+
+    // "/msg <user> <text>", straight to the user's session found by name. Users not in a
+    // room have no receiver listening yet, so theirs waits in OfflineMessages like for users
+    // who are not logged in. The sender hears back whether it was delivered or queued.
+    private void directMessage(String args) {
+        int space = args.indexOf(' ');
+        if (space <= 0) {
+            sendMessage("Usage: /msg <user> <message>");
+            return;
+        }
+        String target = args.substring(0, space);
+        String text = args.substring(space + 1);
+        long id = nextDirectId.incrementAndGet();
+        ClientHandler recipient = SessionRegistry.find(target);
+        if (recipient != null && recipient.inRoom()) {
+            recipient.sendMessage(OutboundMessage.direct(username, text));
+            ServerStats.directDelivered.increment();
+            sendMessage(OutboundMessage.directAck(id, target, "delivered"));
+            return;
+        }
+        String refused = OfflineMessages.add(target, new OfflineMessages.Pending(username, id, text));
+        if (refused != null) {
+            ServerStats.directRefused.increment();
+            sendMessage(OutboundMessage.directAck(id, target, refused));
+            return;
+        }
+        ServerStats.directQueued.increment();
+        sendMessage(OutboundMessage.directAck(id, target, "queued until they join a room"));
+        // they may have joined a room after the lookup and already emptied their mailbox
+        recipient = SessionRegistry.find(target);
+        if (recipient != null && recipient.inRoom()) {
+            recipient.deliverOffline();
+        }
+    }
 
+    // what waited for this user, with a delivered acknowledgement to each sender still here
+    private void deliverOffline() {
+        for (OfflineMessages.Pending message : OfflineMessages.take(username)) {
+            sendMessage(OutboundMessage.direct(message.from(), message.text()));
+            ServerStats.directDelivered.increment();
+            ClientHandler sender = SessionRegistry.find(message.from());
+            if (sender != null) {
+                sender.sendMessage(OutboundMessage.directAck(message.id(), username, "delivered"));
+            }
+        }
+    }
+
+    // "/history [before-seq] [count]", no sequence means the latest messages
+    private void history(String room, String args) {
+        if (!isIn(room)) {
+            sendMessage("You must join a room first (/join roomname)");
+            return;
+        }
+        String[] parts = args.isEmpty() ? new String[0] : args.split("\\s+");
+        try {
+            long before = parts.length > 0 ? Long.parseLong(parts[0]) : 0;
+            int count = parts.length > 1 ? Integer.parseInt(parts[1]) : ServerConfig.HISTORY_SIZE;
+            RoomManager.history(room, this, before, Math.max(1, Math.min(count, MAX_HISTORY_PAGE)));
+        } catch (NumberFormatException e) {
+            sendMessage("Usage: /history <before-seq> <count>");
+        }
     }
 
-    private void leaveRoom() {
-        if (currentRoom != null) {
-            currentRoom.memberLeft(this);
-            sendMessage("kickOut by the host");
-            currentRoom = null;
+    private void leave(String room) {
+        if (isIn(room)) {
+            RoomManager.leaveOrClose(room, this);
         }
         else{
             sendMessage("Not in any room");
         }
     }
 
-    public void kickFromRoom() {
-        sendMessage("kickOut");
+    public void kickFromRoom(String room) {
+        kickFromRoom(room, "kickOut");
+    }
+
+    // runs on the room's shard; the client window of the room closes on the notice
+    void kickFromRoom(String room, String notice) {
+        forget(room);
+        sendMessage(OutboundMessage.kick(room, notice));
+    }
+
+    // the active room falls back to the room joined last among the ones left
+    private void forget(String room) {
+        synchronized (rooms) {
+            if (rooms.remove(room) && room.equals(activeRoom)) {
+                String last = null;
+                for (String name : rooms) {
+                    last = name;
+                }
+                activeRoom = last;
+            }
+        }
+    }
+
+    // "/rooms [prefix] [page]", "*" lists every room when a page is given
+    private void listRooms(String args) {
+        String[] parts = args.isEmpty() ? new String[0] : args.split("\\s+");
+        String prefix = parts.length > 0 && !parts[0].equals("*") ? parts[0] : "";
+        try {
+            listRooms(prefix, parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+        } catch (NumberFormatException e) {
+            sendMessage("Usage: /rooms <prefix> <page>");
+        }
     }
 
-    private void listRooms() {
-        StringBuilder sb = new StringBuilder("Available rooms:\n");
-        RoomManager.getRoomInfo().forEach((name, count) -> 
-            sb.append("- ").append(name).append(" (")
-            .append(count).append(" user").append(count != 1 ? "s" : "")
-            .append(")\n"));
-        sb.append("done\n");
-        sendMessage(sb.toString());
+    private void listRooms(String prefix, int page) {
+        sendMessage(RoomDirectory.list(prefix, Math.max(1, page)));
     }
 
     public void sendMessage(String message) {
         if (!isClosed()) {
-            out.println(message);
+            connection.send(message);
         }
     }
 
+    public void sendMessage(OutboundMessage message) {
+        if (!isClosed()) {
+            connection.send(message);
+        }
+    }
+
+    // Text clients split what they get on line breaks, so a line break in a binary client's
+    // string would let it forge whole server lines (a kick, a roster) for every text client.
+    private static String singleLine(String text) {
+        return text.indexOf('\n') < 0 && text.indexOf('\r') < 0 ? text : text.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    // the same for both protocols: not blank and no control characters, line breaks included
+    // one token like room names: /msg and the text roster deltas split on spaces
+    private static boolean isValidName(String name) {
+        return !name.isEmpty() && name.chars().noneMatch(c -> Character.isWhitespace(c) || Character.isISOControl(c));
+    }
+
     private void handleError(IOException e) {
         if (running.get()) {
             System.out.println("Client error: " + (username != null ? username : "unknown") + 
@@ -167,39 +609,88 @@ public class ClientHandler implements Runnable {
     }
 
     private void shutdown() {
+        finishLogin();
         if (running.compareAndSet(true, false)) {
             try {
-                if (currentRoom != null) {
-                    currentRoom.memberLeft(this);
+                String joined = getJoinedRooms();
+                List<String> left;
+                synchronized (rooms) {
+                    left = List.copyOf(rooms);
+                    rooms.clear();
+                    activeRoom = null;
+                }
+                left.forEach(room -> RoomManager.leave(room, this, null));
+                Cluster.sessionClosed(this);
+                String token = resumeToken;
+                if (token != null && exited) {
+                    ResumeTokens.revoke(token);
+                } else if (token != null) {
+                    ResumeTokens.detach(token, username, joined);
                 }
                 ChatServer.removeClient(this);
-                if (!socket.isClosed()) {
-                    socket.close();
+                if (!connection.isClosed()) {
+                    connection.close();
+                }
+                if (username != null) {
+                    ChatServer.broadcastSystemMessage(username + " disconnected");
                 }
-                ChatServer.broadcastSystemMessage(username + " disconnected");
             } catch (IOException e) {
                 System.out.println("Shutdown error: " + e.getMessage());
             }
         }
     }
-    public void listMembers(){
-        StringBuilder sb = new StringBuilder("Members:\n");
-        sb.append(currentRoom.getMembers());
-        sb.append("\ndone\n");
-        sendMessage(sb.toString());
+    public void listMembers(String room){
+        if (isIn(room)) {
+            RoomManager.roster(room, this);
+        }
     }
 
-    public String getUsername() {
-        return username;
+    int getBacklog() {
+        return connection == null ? 0 : connection.backlog();
+    }
+
+    long getSessionId() {
+        return sessionId;
+    }
+
+    boolean isBinary() {
+        return connection != null && connection.isBinary();
+    }
+
+    String getResumeToken() {
+        return resumeToken;
+    }
+
+    List<String> getRooms() {
+        synchronized (rooms) {
+            return List.copyOf(rooms);
+        }
+    }
+
+    // space separated with the active room last, so rejoining them in order restores it
+    String getJoinedRooms() {
+        synchronized (rooms) {
+            if (rooms.isEmpty()) {
+                return null;
+            }
+            String active = activeRoom;
+            StringJoiner joined = new StringJoiner(" ");
+            rooms.stream().filter(room -> !room.equals(active)).forEach(joined::add);
+            if (active != null) {
+                joined.add(active);
+            }
+            return joined.toString();
+        }
     }
-    public boolean equals(Object other){
-        if (!(other instanceof ClientHandler)) return false;
-        return this.username.equals(((ClientHandler)other).username);
+
+    boolean isIn(String room) {
+        return room != null && rooms.contains(room);
     }
-    public int hashCode(){
-        return this.username.hashCode();
+
+    public String getUsername() {
+        return username;
     }
     public boolean inRoom(){
-        return this.currentRoom!=null;
+        return !this.rooms.isEmpty();
     }
 }
\ No newline at end of file
@@ -0,0 +1,387 @@
+package ServerSide;
+
+import Protocol.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// Cluster mode: every room has one home node, picked by consistent hashing of its name over
+// the nodes that are up, and only the home node holds the room. Clients stay on the node
+// they connected to; RoomManager passes operations on rooms homed elsewhere to forward(),
+// which sends them over the link to the home node. There a RemoteMember stands in for the
+// client, and whatever the room sends it comes back over the link to the client's node.
+// When a node goes down its rooms form again on their new homes as their members rejoin;
+// when a node comes up, the rooms that now hash to it are handed over with owner and
+// sequence, and their members are told to rejoin there.
+public class Cluster {
+    static final byte HELLO = 1;
+    static final byte JOIN = 2;
+    static final byte LEAVE = 3;
+    static final byte LEAVE_OR_CLOSE = 4;
+    static final byte CLOSE = 5;
+    static final byte KICK = 6;
+    static final byte SAY = 7;
+    static final byte HISTORY = 8;
+    static final byte ROSTER = 9;
+    static final byte DETACH = 10;
+    static final byte DELIVER = 11;
+    static final byte KICKED = 12;
+    static final byte REJOIN = 13;
+    static final byte MIGRATE = 14;
+    static final byte ROOMS = 15;
+    // a DELIVER carries one encoded message and ROOMS one line per room, both far below this
+    private static final int MAX_FRAME = 8 * 1024 * 1024;
+    // nothing bigger is read from a peer that has not said HELLO yet
+    private static final int HELLO_MAX_FRAME = 1024;
+    // every node reports its rooms this often, which doubles as the link heartbeat
+    private static final long GOSSIP_MILLIS = 1000;
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+
+    private static List<String> addresses = List.of();
+    private static int self = -1;
+    private static InetAddress bindAddress;
+    private static PeerLink[] links;
+    // guarded by Cluster.class, the ring is rebuilt from it on every change
+    private static final Set<Integer> up = new TreeSet<>();
+    private static volatile HashRing ring;
+    // local clients with a room on another node, by session id
+    private static final ConcurrentMap<Long, ClientHandler> sessions = new ConcurrentHashMap<>();
+    // stand-ins for the clients of each other node, by node and session id
+    private static final ConcurrentMap<Integer, ConcurrentMap<Long, RemoteMember>> proxies = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Integer, Map<String, Integer>> remoteRooms = new ConcurrentHashMap<>();
+
+    public static void start() throws IOException {
+        String nodes = ServerConfig.CLUSTER_NODES;
+        if (nodes == null || nodes.isBlank()) {
+            return;
+        }
+        addresses = List.of(nodes.trim().split("\\s*,\\s*"));
+        self = ServerConfig.CLUSTER_SELF;
+        if (self < 0 || self >= addresses.size()) {
+            throw new IOException("chat.clusterSelf must be this node's index in chat.clusterNodes");
+        }
+        if (ServerConfig.CLUSTER_SECRET == null || ServerConfig.CLUSTER_SECRET.isEmpty()) {
+            throw new IOException("chat.clusterSecret must be set, the same on every node");
+        }
+        String address = addresses.get(self);
+        // only on the inter-node address, not on every interface
+        bindAddress = InetAddress.getByName(host(address));
+        ServerSocket listener = new ServerSocket(port(address), 50, bindAddress);
+        synchronized (Cluster.class) {
+            up.add(self);
+            ring = new HashRing(addresses, up);
+        }
+        Thread.ofPlatform().daemon().name("cluster-accept").start(() -> accept(listener));
+        links = new PeerLink[addresses.size()];
+        for (int node = 0; node < links.length; node++) {
+            if (node != self) {
+                links[node] = new PeerLink(node, addresses.get(node));
+                links[node].start();
+            }
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "cluster-gossip");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            gossip();
+            rebalance();
+        }, GOSSIP_MILLIS, GOSSIP_MILLIS, TimeUnit.MILLISECONDS);
+        System.out.println("Cluster node " + self + " of " + addresses.size() + " on " + address);
+    }
+
+    public static boolean isEnabled() {
+        return ring != null;
+    }
+
+    static int self() {
+        return self;
+    }
+
+    // links to the other nodes leave from the address they expect this node on
+    static InetAddress bindAddress() {
+        return bindAddress;
+    }
+
+    static String host(String address) {
+        return address.substring(0, address.lastIndexOf(':'));
+    }
+
+    static int port(String address) {
+        return Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+    }
+
+    public static int getNodesUp() {
+        synchronized (Cluster.class) {
+            return up.size();
+        }
+    }
+
+    // true when the room's home is another node and the operation was sent there; members
+    // standing in for other nodes' clients always act on the local room
+    static boolean forward(String room, ClientHandler client, byte op) {
+        return forward(room, client, op, frame -> { });
+    }
+
+    static boolean forward(String room, ClientHandler client, byte op, Consumer<FrameWriter> args) {
+        HashRing current = ring;
+        if (current == null || client instanceof RemoteMember) {
+            return false;
+        }
+        int home = current.nodeFor(room);
+        if (home == self) {
+            return false;
+        }
+        send(home, room, client, op, args);
+        return true;
+    }
+
+    private static void send(int node, String room, ClientHandler client, byte op, Consumer<FrameWriter> args) {
+        sessions.putIfAbsent(client.getSessionId(), client);
+        FrameWriter frame = new FrameWriter(op).varint(client.getSessionId()).string(client.getUsername())
+                .varint(client.isBinary() ? 1 : 0).string(room);
+        args.accept(frame);
+        links[node].send(frame.toBytes());
+    }
+
+    static void deliver(int node, long session, byte[] payload) {
+        links[node].deliver(session, payload);
+    }
+
+    static void kicked(int node, long session, String room, String notice) {
+        links[node].send(new FrameWriter(KICKED).varint(session).string(room).string(notice).toBytes());
+    }
+
+    // the client's connection is gone, so are its stand-ins on the other nodes
+    static void sessionClosed(ClientHandler client) {
+        if (links == null || sessions.remove(client.getSessionId()) == null) {
+            return;
+        }
+        byte[] frame = new FrameWriter(DETACH).varint(client.getSessionId()).toBytes();
+        for (PeerLink link : links) {
+            if (link != null) {
+                link.send(frame);
+            }
+        }
+    }
+
+    // /rooms lists the rooms of every node, as last reported by each
+    public static Map<String, Integer> getRoomInfo() {
+        Map<String, Integer> info = RoomManager.getRoomInfo();
+        remoteRooms.values().forEach(rooms -> rooms.forEach((name, count) -> info.merge(name, count, Math::max)));
+        return info;
+    }
+
+    static void peerUp(int node) {
+        synchronized (Cluster.class) {
+            up.add(node);
+            ring = new HashRing(addresses, up);
+        }
+        System.out.println("Cluster node " + node + " is up");
+        gossip();
+        rebalance();
+    }
+
+    static void peerDown(int node) {
+        HashRing before;
+        synchronized (Cluster.class) {
+            if (!up.remove(node)) {
+                return;
+            }
+            before = ring;
+            ring = new HashRing(addresses, up);
+        }
+        System.out.println("Cluster node " + node + " is down");
+        if (remoteRooms.remove(node) != null) {
+            RoomDirectory.changed();
+        }
+        ConcurrentMap<Long, RemoteMember> gone = proxies.remove(node);
+        if (gone != null) {
+            gone.values().forEach(RemoteMember::detach);
+            RoomManager.removeMembers(ClientHandler::isClosed);
+        }
+        sessions.values().forEach(client -> client.getRooms().forEach(room -> {
+            if (before.nodeFor(room) == node) {
+                RoomManager.join(room, client);
+            }
+        }));
+    }
+
+    // Hands the rooms whose home is now another node over to it. Also runs on every gossip
+    // tick, so a room created here while the nodes briefly disagreed still ends up at home.
+    static void rebalance() {
+        HashRing current = ring;
+        RoomManager.handOff(name -> current.nodeFor(name) != self, room -> migrate(current.nodeFor(room.getName()), room));
+    }
+
+    // runs on the room's shard, after it was removed from this node
+    private static void migrate(int home, ChatRoom room) {
+        ChatRoom.State state = room.state();
+        links[home].send(new FrameWriter(MIGRATE).string(state.name()).string(state.owner())
+                .varint(state.lastSequence()).varint(state.rosterVersion()).toBytes());
+        for (ClientHandler member : room.getMembers()) {
+            if (member instanceof RemoteMember remote) {
+                links[remote.getNode()].send(new FrameWriter(REJOIN).varint(remote.getSession())
+                        .string(room.getName()).varint(home).toBytes());
+            } else {
+                rejoin(member, room.getName(), home);
+            }
+        }
+    }
+
+    private static void rejoin(ClientHandler client, String room, int home) {
+        if (!client.isIn(room)) {
+            return;
+        }
+        if (home != self && links[home].isUp()) {
+            send(home, room, client, JOIN, frame -> { });
+        } else {
+            RoomManager.join(room, client);
+        }
+    }
+
+    private static void gossip() {
+        Map<String, Integer> rooms = RoomManager.getRoomInfo();
+        FrameWriter frame = new FrameWriter(ROOMS).varint(rooms.size());
+        rooms.forEach((name, count) -> frame.string(name).varint(count));
+        byte[] bytes = frame.toBytes();
+        for (PeerLink link : links) {
+            if (link != null) {
+                link.send(bytes);
+            }
+        }
+    }
+
+    private static void accept(ServerSocket listener) {
+        while (true) {
+            try {
+                Socket socket = listener.accept();
+                Thread.ofVirtual().start(() -> read(socket));
+            } catch (IOException e) {
+                System.err.println("Cluster accept error: " + e.getMessage());
+            }
+        }
+    }
+
+    // the receiving half of a link, opened by the peer's PeerLink
+    private static void read(Socket socket) {
+        int node = -1;
+        try (socket) {
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            FrameReader frame = FrameReader.read(in, HELLO_MAX_FRAME);
+            if (frame == null || frame.opcode() != HELLO) {
+                return;
+            }
+            int peer = (int) frame.varint();
+            String secret = frame.string();
+            if (peer < 0 || peer >= links.length || peer == self) {
+                return;
+            }
+            if (!isAddressOf(peer, socket.getInetAddress()) || !MessageDigest.isEqual(
+                    secret.getBytes(StandardCharsets.UTF_8), ServerConfig.CLUSTER_SECRET.getBytes(StandardCharsets.UTF_8))) {
+                System.err.println("Cluster link from " + socket.getRemoteSocketAddress() + " refused");
+                return;
+            }
+            node = peer;
+            while ((frame = FrameReader.read(in, MAX_FRAME)) != null) {
+                onFrame(node, frame);
+            }
+        } catch (IOException | RuntimeException e) {
+        } finally {
+            // whatever ended this side of the link, the peer has to be connected afresh
+            if (node >= 0) {
+                links[node].reset();
+            }
+        }
+    }
+
+    // a peer has to connect from the address chat.clusterNodes gives for the node it claims to be
+    private static boolean isAddressOf(int node, InetAddress remote) throws IOException {
+        return Arrays.asList(InetAddress.getAllByName(host(addresses.get(node)))).contains(remote);
+    }
+
+    private static void onFrame(int node, FrameReader frame) throws IOException {
+        byte op = frame.opcode();
+        switch (op) {
+            case DELIVER -> {
+                long[] targets = new long[(int) frame.varint()];
+                for (int i = 0; i < targets.length; i++) {
+                    targets[i] = frame.varint();
+                }
+                OutboundMessage message = OutboundMessage.encoded(frame.bytes());
+                for (long session : targets) {
+                    ClientHandler client = sessions.get(session);
+                    if (client != null) {
+                        client.sendMessage(message);
+                    }
+                }
+            }
+            case KICKED -> {
+                ClientHandler client = sessions.get(frame.varint());
+                String room = frame.string();
+                String notice = frame.string();
+                if (client != null) {
+                    client.kickFromRoom(room, notice);
+                }
+            }
+            case REJOIN -> {
+                ClientHandler client = sessions.get(frame.varint());
+                String room = frame.string();
+                int home = (int) frame.varint();
+                if (client != null) {
+                    rejoin(client, room, home);
+                }
+            }
+            case MIGRATE -> RoomManager.adopt(new ChatRoom.State(frame.string(), frame.string(),
+                    frame.varint(), frame.varint(), List.of()));
+            case ROOMS -> {
+                Map<String, Integer> rooms = new HashMap<>();
+                for (long n = frame.varint(); n > 0; n--) {
+                    rooms.put(frame.string(), (int) frame.varint());
+                }
+                if (!rooms.equals(remoteRooms.put(node, rooms))) {
+                    RoomDirectory.changed();
+                }
+            }
+            case DETACH -> {
+                RemoteMember member = proxies(node).remove(frame.varint());
+                if (member != null) {
+                    member.detach();
+                }
+            }
+            default -> onRoomOperation(node, op, frame);
+        }
+    }
+
+    private static void onRoomOperation(int node, byte op, FrameReader frame) throws IOException {
+        long session = frame.varint();
+        String username = frame.string();
+        boolean binary = frame.varint() == 1;
+        String room = frame.string();
+        RemoteMember member = proxies(node).computeIfAbsent(session, id -> new RemoteMember(node, id, username, binary));
+        switch (op) {
+            case JOIN -> RoomManager.join(room, member);
+            case LEAVE -> {
+                String notice = frame.string();
+                RoomManager.leave(room, member, notice.isEmpty() ? null : notice);
+            }
+            case LEAVE_OR_CLOSE -> RoomManager.leaveOrClose(room, member);
+            case CLOSE -> RoomManager.close(room, member);
+            case KICK -> RoomManager.kick(room, member, frame.string());
+            case SAY -> RoomManager.broadcast(room, member, frame.string());
+            case HISTORY -> RoomManager.history(room, member, frame.varint(), (int) frame.varint());
+            case ROSTER -> RoomManager.roster(room, member);
+            default -> System.err.println("Unknown cluster frame " + op + " from node " + node);
+        }
+    }
+
+    private static ConcurrentMap<Long, RemoteMember> proxies(int node) {
+        return proxies.computeIfAbsent(node, n -> new ConcurrentHashMap<>());
+    }
+}
@@ -0,0 +1,27 @@
+package ServerSide;
+
+import java.io.IOException;
+
+public interface Connection {
+    void send(OutboundMessage message);
+
+    default void send(String line) {
+        send(OutboundMessage.of(line));
+    }
+
+    // only called during the handshake, before anything but the text prompt was sent
+    void switchToBinary();
+
+    boolean isBinary();
+
+    // the client logged in, whatever was kept for its handshake deadline can go
+    default void loginFinished() {
+    }
+
+    // lines queued but not yet written to the socket
+    int backlog();
+
+    boolean isClosed();
+
+    void close() throws IOException;
+}
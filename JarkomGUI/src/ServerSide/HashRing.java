@@ -0,0 +1,53 @@
+package ServerSide;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Consistent hashing of room names onto cluster nodes. Every node is placed at many points
+// of a 64-bit ring by hashing its address, so all nodes agree on the placement without
+// talking, and a node joining or leaving only moves the rooms next to its own points.
+final class HashRing {
+    private static final int POINTS_PER_NODE = 128;
+    private final long[] points;
+    private final int[] nodes;
+
+    HashRing(List<String> addresses, Collection<Integer> members) {
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int node : members) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) {
+                ring.put(hash(addresses.get(node) + "#" + i), node);
+            }
+        }
+        points = new long[ring.size()];
+        nodes = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            nodes[i++] = point.getValue();
+        }
+    }
+
+    // the first node point at or after the key's hash, wrapping around
+    int nodeFor(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return nodes[i == points.length ? 0 : i];
+    }
+
+    // FNV-1a, finished with a 64-bit mix so short similar names still spread evenly
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53a87cdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,17 @@
+package ServerSide;
+
+// The default for a single server: every member is in this process, so the delivery the
+// room already did reached everyone and there is nothing to publish or subscribe to.
+public class InProcessBackplane implements Backplane {
+    public void start(Subscriber subscriber) {
+    }
+
+    public void publish(String room, String message) {
+    }
+
+    public void subscribe(String room) {
+    }
+
+    public void unsubscribe(String room) {
+    }
+}
@@ -0,0 +1,290 @@
+package ServerSide;
+
+import Storage.*;
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.management.*;
+
+// Publishes ServerStats as the ChatServer:type=Metrics MBean and, when chat.metricsPort is
+// set, as plain text on http://localhost:<port>/metrics. Everything is read on demand from
+// the counters, only the per-second rates need a sampler.
+public class Metrics implements ChatMetricsMXBean {
+    // upper bounds of the outbound backlog histogram, in queued messages
+    private static final int[] BACKLOG_BUCKETS = {0, 1, 10, 100, 1000, 10_000};
+    private static final int TOP_BACKLOGS = 10;
+    private static volatile double loginsPerSecond;
+    private static volatile double broadcastsPerSecond;
+
+    public static void start() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(),
+                    new ObjectName("ChatServer:type=Metrics"));
+        } catch (JMException e) {
+            System.out.println("Metrics MBean not registered: " + e.getMessage());
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] last = {ServerStats.getLogins(), ServerStats.getBroadcasts()};
+        sampler.scheduleAtFixedRate(() -> {
+            long logins = ServerStats.getLogins();
+            long broadcasts = ServerStats.getBroadcasts();
+            loginsPerSecond = logins - last[0];
+            broadcastsPerSecond = broadcasts - last[1];
+            last[0] = logins;
+            last[1] = broadcasts;
+        }, 1, 1, TimeUnit.SECONDS);
+        if (ServerConfig.METRICS_PORT > 0) {
+            try {
+                startHttp(ServerConfig.METRICS_PORT);
+            } catch (IOException e) {
+                System.out.println("Metrics endpoint not started: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void startHttp(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(null);
+        server.start();
+        System.out.println("Metrics on http://localhost:" + port + "/metrics");
+    }
+
+    // Prometheus text exposition format
+    static String scrape() {
+        StringBuilder out = new StringBuilder();
+        gauge(out, "chat_connections_active", ServerStats.getActiveConnections());
+        gauge(out, "chat_users_logged_in", SessionRegistry.size());
+        counter(out, "chat_logins_total", ServerStats.getLogins());
+        gauge(out, "chat_logins_per_second", loginsPerSecond);
+        Map<String, Integer> rooms = RoomManager.getRoomInfo();
+        gauge(out, "chat_rooms", rooms.size());
+        out.append("# TYPE chat_room_members gauge\n");
+        rooms.forEach((room, members) -> out.append("chat_room_members{room=\"").append(escape(room))
+                .append("\"} ").append(members).append('\n'));
+        counter(out, "chat_broadcasts_total", ServerStats.getBroadcasts());
+        gauge(out, "chat_broadcasts_per_second", broadcastsPerSecond);
+        counter(out, "chat_deliveries_total", ServerStats.getDeliveries());
+        counter(out, "chat_bytes_in_total", ServerStats.getBytesIn());
+        counter(out, "chat_bytes_out_total", ServerStats.getBytesOut());
+        counter(out, "chat_messages_queued_total", ServerStats.getMessagesQueued());
+        counter(out, "chat_messages_dropped_total", ServerStats.getMessagesDropped());
+        counter(out, "chat_slow_consumers_disconnected_total", ServerStats.getSlowConsumersDisconnected());
+        gauge(out, "chat_lines_per_flush", ServerStats.getAverageLinesPerFlush());
+        gauge(out, "chat_history_bytes", RecentHistory.getUsedBytes());
+        counter(out, "chat_log_records_written_total", MessageLog.getRecordsWritten());
+        counter(out, "chat_log_records_dropped_total", MessageLog.getRecordsDropped());
+        counter(out, "chat_log_syncs_total", MessageLog.getSyncs());
+        gauge(out, "chat_log_backlog", MessageLog.getBacklog());
+        counter(out, "chat_throttled_delayed_total", ServerStats.getThrottledDelayed());
+        counter(out, "chat_throttled_dropped_total", ServerStats.getThrottledDropped());
+        counter(out, "chat_throttled_disconnected_total", ServerStats.getThrottledDisconnected());
+        counter(out, "chat_backplane_received_total", ServerStats.getBackplaneReceived());
+        counter(out, "chat_backplane_dropped_total", ServerStats.getBackplaneDropped());
+        counter(out, "chat_direct_delivered_total", ServerStats.getDirectDelivered());
+        counter(out, "chat_direct_queued_total", ServerStats.getDirectQueued());
+        counter(out, "chat_direct_refused_total", ServerStats.getDirectRefused());
+        gauge(out, "chat_offline_bytes", OfflineMessages.getUsedBytes());
+        if (Cluster.isEnabled()) {
+            gauge(out, "chat_cluster_nodes_up", Cluster.getNodesUp());
+            counter(out, "chat_cluster_frames_total", ServerStats.getClusterFrames());
+            counter(out, "chat_cluster_dropped_total", ServerStats.getClusterDropped());
+        }
+        out.append("# TYPE chat_command_seconds histogram\n");
+        ServerStats.getCommandLatency().forEach((command, histogram) -> {
+            long[] counts = histogram.snapshot();
+            int first = 0;
+            int last = -1;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    first = last < 0 ? i : first;
+                    last = i;
+                }
+            }
+            long cumulative = 0;
+            for (int i = first; i <= last; i++) {
+                cumulative += counts[i];
+                out.append("chat_command_seconds_bucket{command=\"").append(command).append("\",le=\"")
+                        .append(Histogram.upperBound(i) / 1e9).append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("chat_command_seconds_bucket{command=\"").append(command).append("\",le=\"+Inf\"} ")
+                    .append(cumulative).append('\n');
+            out.append("chat_command_seconds_sum{command=\"").append(command).append("\"} ")
+                    .append(histogram.getSum() / 1e9).append('\n');
+            out.append("chat_command_seconds_count{command=\"").append(command).append("\"} ")
+                    .append(cumulative).append('\n');
+        });
+        // one histogram over all clients, a series per user would grow with every name ever seen
+        long[] buckets = new long[BACKLOG_BUCKETS.length];
+        long count = 0;
+        long sum = 0;
+        int max = 0;
+        for (ClientHandler client : SessionRegistry.all()) {
+            int backlog = client.getBacklog();
+            for (int i = 0; i < BACKLOG_BUCKETS.length; i++) {
+                if (backlog <= BACKLOG_BUCKETS[i]) {
+                    buckets[i]++;
+                }
+            }
+            count++;
+            sum += backlog;
+            max = Math.max(max, backlog);
+        }
+        out.append("# TYPE chat_outbound_backlog histogram\n");
+        for (int i = 0; i < BACKLOG_BUCKETS.length; i++) {
+            out.append("chat_outbound_backlog_bucket{le=\"").append(BACKLOG_BUCKETS[i]).append("\"} ")
+                    .append(buckets[i]).append('\n');
+        }
+        out.append("chat_outbound_backlog_bucket{le=\"+Inf\"} ").append(count).append('\n');
+        out.append("chat_outbound_backlog_sum ").append(sum).append('\n');
+        out.append("chat_outbound_backlog_count ").append(count).append('\n');
+        gauge(out, "chat_outbound_backlog_max", max);
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, long value) {
+        out.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, double value) {
+        out.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // the clients furthest behind, largest backlog first
+    private static Map<String, Integer> backlogs() {
+        PriorityQueue<Map.Entry<String, Integer>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+        for (ClientHandler client : SessionRegistry.all()) {
+            String username = client.getUsername();
+            int backlog = client.getBacklog();
+            if (username != null && backlog > 0) {
+                top.add(Map.entry(username, backlog));
+                if (top.size() > TOP_BACKLOGS) {
+                    top.poll();
+                }
+            }
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(top);
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        Map<String, Integer> backlog = new LinkedHashMap<>();
+        entries.forEach(entry -> backlog.put(entry.getKey(), entry.getValue()));
+        return backlog;
+    }
+
+    private static Map<String, Long> commandPercentile(double percentile) {
+        Map<String, Long> micros = new TreeMap<>();
+        ServerStats.getCommandLatency().forEach((command, histogram) ->
+                micros.put(command, histogram.percentile(percentile) / 1000));
+        return micros;
+    }
+
+    public long getActiveConnections() {
+        return ServerStats.getActiveConnections();
+    }
+
+    public int getLoggedInUsers() {
+        return SessionRegistry.size();
+    }
+
+    public long getLogins() {
+        return ServerStats.getLogins();
+    }
+
+    public double getLoginsPerSecond() {
+        return loginsPerSecond;
+    }
+
+    public int getRooms() {
+        return RoomManager.getRoomInfo().size();
+    }
+
+    public Map<String, Integer> getRoomMembers() {
+        return new TreeMap<>(RoomManager.getRoomInfo());
+    }
+
+    public long getBroadcasts() {
+        return ServerStats.getBroadcasts();
+    }
+
+    public double getBroadcastsPerSecond() {
+        return broadcastsPerSecond;
+    }
+
+    public long getDeliveries() {
+        return ServerStats.getDeliveries();
+    }
+
+    public long getBytesIn() {
+        return ServerStats.getBytesIn();
+    }
+
+    public long getBytesOut() {
+        return ServerStats.getBytesOut();
+    }
+
+    public long getMessagesQueued() {
+        return ServerStats.getMessagesQueued();
+    }
+
+    public long getMessagesDropped() {
+        return ServerStats.getMessagesDropped();
+    }
+
+    public long getSlowConsumersDisconnected() {
+        return ServerStats.getSlowConsumersDisconnected();
+    }
+
+    public double getAverageLinesPerFlush() {
+        return ServerStats.getAverageLinesPerFlush();
+    }
+
+    public long getLogRecordsWritten() {
+        return MessageLog.getRecordsWritten();
+    }
+
+    public long getLogRecordsDropped() {
+        return MessageLog.getRecordsDropped();
+    }
+
+    public Map<String, Long> getCommandLatencyP50Micros() {
+        return commandPercentile(50);
+    }
+
+    public Map<String, Long> getCommandLatencyP99Micros() {
+        return commandPercentile(99);
+    }
+
+    public Map<String, Integer> getOutboundBacklog() {
+        return backlogs();
+    }
+
+    public int getMaxOutboundBacklog() {
+        int max = 0;
+        for (ClientHandler client : SessionRegistry.all()) {
+            max = Math.max(max, client.getBacklog());
+        }
+        return max;
+    }
+}
@@ -0,0 +1,217 @@
+package ServerSide;
+
+import Protocol.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+public class NioConnection implements Connection {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final NioServer.EventLoop loop;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+    // pending bytes of an unfinished line, or of unfinished frames once binary
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength = 0;
+    private volatile boolean binary = false;
+    private final OutboundQueue<OutboundMessage> queue =
+            new OutboundQueue<>(ServerConfig.OUTBOUND_CAPACITY, ServerConfig.OVERFLOW_POLICY);
+    // lines taken off the queue for the current gathering write, [batchStart, batchEnd) are
+    // not fully written yet; kept out of the queue so overflow never drops half a line
+    private final ByteBuffer[] batch = new ByteBuffer[64];
+    private int batchStart = 0;
+    private int batchEnd = 0;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private ClientHandler handler;
+    private volatile NioServer.Timer loginTimer;
+
+    NioConnection(SocketChannel channel, SelectionKey key, NioServer.EventLoop loop) {
+        this.channel = channel;
+        this.key = key;
+        this.loop = loop;
+    }
+
+    void start() {
+        handler = new ClientHandler(this);
+        handler.holdLoginPermit();
+        handler.start();
+        loginTimer = loop.schedule(handler::loginTimedOut, ServerConfig.HANDSHAKE_TIMEOUT_MILLIS * 1_000_000L);
+    }
+
+    public void loginFinished() {
+        NioServer.Timer timer = loginTimer;
+        if (timer != null) {
+            loginTimer = null;
+            loop.cancel(timer);
+        }
+    }
+
+    public void send(OutboundMessage message) {
+        if (closed.get()) {
+            return;
+        }
+        if (!queue.offer(message)) {
+            ServerStats.slowConsumersDisconnected.increment();
+            loop.execute(handler::disconnected);
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            if (ServerConfig.FLUSH_DELAY_NANOS > 0) {
+                // linger so lines arriving in the meantime share one write
+                loop.schedule(this::flush, ServerConfig.FLUSH_DELAY_NANOS);
+            } else {
+                loop.execute(this::flush);
+            }
+        }
+    }
+
+    // only called on the event loop thread
+    void flush() {
+        flushScheduled.set(false);
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (batchStart == batchEnd && fillBatch() == 0) {
+                    break;
+                }
+                ServerStats.bytesOut.add(channel.write(batch, batchStart, batchEnd - batchStart));
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException | CancelledKeyException e) {
+            handler.disconnected();
+        }
+    }
+
+    // pulls queued lines into one gathering write of up to FLUSH_BYTES
+    private int fillBatch() {
+        batchStart = 0;
+        batchEnd = 0;
+        int bytes = 0;
+        OutboundMessage message;
+        while (batchEnd < batch.length && bytes < ServerConfig.FLUSH_BYTES && (message = queue.poll()) != null) {
+            batch[batchEnd++] = message.buffer(binary);
+            bytes += message.length(binary);
+        }
+        if (batchEnd > 0) {
+            ServerStats.flushed(batchEnd);
+        }
+        return batchEnd;
+    }
+
+    // only called on the event loop thread
+    void read() {
+        int n;
+        try {
+            n = channel.read(readBuffer);
+        } catch (IOException e) {
+            n = -1;
+        }
+        if (n < 0) {
+            handler.disconnected();
+            return;
+        }
+        ServerStats.bytesIn.add(n);
+        readBuffer.flip();
+        try {
+            while (readBuffer.hasRemaining() && !closed.get()) {
+                if (binary) {
+                    readFrames();
+                    break;
+                }
+                byte b = readBuffer.get();
+                if (b == '\n') {
+                    int end = lineLength > 0 && lineBuffer[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                    String line = new String(lineBuffer, 0, end, StandardCharsets.UTF_8);
+                    lineLength = 0;
+                    handler.onLine(line);
+                } else {
+                    if (lineLength == lineBuffer.length) {
+                        if (lineLength >= ServerConfig.MAX_LINE_LENGTH) {
+                            handler.disconnected();
+                            return;
+                        }
+                        lineBuffer = Arrays.copyOf(lineBuffer, lineLength * 2);
+                    }
+                    lineBuffer[lineLength++] = b;
+                }
+            }
+        } catch (RuntimeException e) {
+            // the bad input stays buffered, keeping the connection would fail on it again
+            System.out.println("Client error: " + e);
+            handler.disconnected();
+            return;
+        } finally {
+            readBuffer.clear();
+        }
+    }
+
+    private void readFrames() {
+        int n = readBuffer.remaining();
+        if (lineLength + n > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + n));
+        }
+        readBuffer.get(lineBuffer, lineLength, n);
+        lineLength += n;
+        int offset = 0;
+        try {
+            while (!closed.get()) {
+                int size = FrameReader.frameSize(lineBuffer, offset, lineLength - offset, ServerConfig.MAX_LINE_LENGTH);
+                if (size < 0) {
+                    break;
+                }
+                int prefix = FrameReader.prefixSize(lineBuffer, offset);
+                handler.onFrame(new FrameReader(lineBuffer, offset + prefix, size - prefix));
+                offset += size;
+            }
+        } catch (IOException | RuntimeException e) {
+            handler.disconnected();
+            return;
+        }
+        System.arraycopy(lineBuffer, offset, lineBuffer, 0, lineLength - offset);
+        lineLength -= offset;
+    }
+
+    public void switchToBinary() {
+        binary = true;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public OutboundQueue<OutboundMessage> getQueue() {
+        return queue;
+    }
+
+    public int backlog() {
+        return queue.size() + batchEnd - batchStart;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            loginFinished();
+            queue.close();
+            key.cancel();
+            channel.close();
+            ServerStats.connectionsClosed.increment();
+            ChatServer.released();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package ServerSide;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class NioServer {
+    private final int port;
+    private final EventLoop[] loops;
+    private int nextLoop = 0;
+
+    public NioServer(int port, int threads) {
+        this.port = port;
+        this.loops = new EventLoop[Math.max(1, threads)];
+    }
+
+    public void run() throws IOException, InterruptedException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop("nio-loop-" + i);
+            loops[i].start();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            while (true) {
+                if (!ServerConfig.REJECT_WHEN_FULL) {
+                    ChatServer.admitWait();
+                }
+                SocketChannel channel = server.accept();
+                if (ServerConfig.REJECT_WHEN_FULL && !ChatServer.tryAdmit()) {
+                    ChatServer.reject(channel.socket(), "Server is full, try again later");
+                    continue;
+                }
+                if (!ChatServer.tryBeginLogin()) {
+                    ChatServer.released();
+                    ChatServer.reject(channel.socket(), "Too many pending logins, try again later");
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, ServerConfig.TCP_NO_DELAY);
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                ServerStats.connectionsOpened.increment();
+                loop.register(channel);
+            }
+        }
+    }
+
+    static class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // only touched on the loop thread
+        private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+        EventLoop(String name) throws IOException {
+            super(name);
+            this.selector = Selector.open();
+            setDaemon(true);
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    NioConnection connection = new NioConnection(channel, key, this);
+                    key.attach(connection);
+                    connection.start();
+                } catch (IOException e) {
+                    System.out.println("Register error: " + e.getMessage());
+                    // give back what the accept loop took for this connection
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                    ServerStats.connectionsClosed.increment();
+                    ChatServer.released();
+                    ChatServer.loginFinished();
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != this) {
+                selector.wakeup();
+            }
+        }
+
+        Timer schedule(Runnable task, long delayNanos) {
+            Timer timer = new Timer(System.nanoTime() + delayNanos, task);
+            execute(() -> timers.add(timer));
+            return timer;
+        }
+
+        // takes the timer out of the queue, so nothing it refers to is held until its deadline
+        void cancel(Timer timer) {
+            execute(() -> timers.remove(timer));
+        }
+
+        public void run() {
+            while (true) {
+                try {
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    long now = System.nanoTime();
+                    while (!timers.isEmpty() && timers.peek().deadline <= now) {
+                        timers.poll().task.run();
+                    }
+                    // tasks queued by this thread while handling keys must not wait for the next I/O event
+                    if (!tasks.isEmpty()) {
+                        selector.selectNow();
+                    } else if (!timers.isEmpty()) {
+                        long waitNanos = timers.peek().deadline - now;
+                        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                    } else {
+                        selector.select();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Event loop error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    static final class Timer implements Comparable<Timer> {
+        private final long deadline;
+        private final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        public int compareTo(Timer other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ServerSide;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Direct messages for users who are not logged in, handed over when they log in. Each user's
+// mailbox holds at most chat.offlineBytesPerUser, each sender may have chat.offlineBytesPerSender
+// waiting over all mailboxes and all of them together chat.offlineBudgetBytes; a message that
+// does not fit is refused and the sender told so. Messages older than chat.offlineExpiryMillis
+// are dropped, so mailboxes nobody comes back for do not hold the budget forever.
+public class OfflineMessages {
+    private static final long SWEEP_MILLIS = 60_000;
+    private static final ConcurrentMap<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Long> bySender = new ConcurrentHashMap<>();
+    private static final AtomicLong usedBytes = new AtomicLong();
+    private static final AtomicLong nextSweep = new AtomicLong();
+
+    public record Pending(String from, long id, String text, long queuedAt) {
+        public Pending(String from, long id, String text) {
+            this(from, id, text, System.currentTimeMillis());
+        }
+
+        // the strings as UTF-16 plus the record and queue entry around them
+        long bytes() {
+            return 2L * (from.length() + text.length()) + 64;
+        }
+
+        boolean isExpired(long now) {
+            return now - queuedAt > ServerConfig.OFFLINE_EXPIRY_MILLIS;
+        }
+    }
+
+    private static final class Mailbox {
+        private final ArrayDeque<Pending> messages = new ArrayDeque<>();
+        private long bytes;
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    // null when the message was queued, otherwise why it was refused
+    static String add(String username, Pending message) {
+        long size = message.bytes();
+        long now = System.currentTimeMillis();
+        long sweep = nextSweep.get();
+        if (now >= sweep && nextSweep.compareAndSet(sweep, now + SWEEP_MILLIS)) {
+            removeExpired(now);
+        }
+        if (!charge(message.from(), size)) {
+            return "refused, you have too many messages waiting";
+        }
+        if (usedBytes.addAndGet(size) > ServerConfig.OFFLINE_BUDGET_BYTES) {
+            usedBytes.addAndGet(-size);
+            charge(message.from(), -size);
+            return "refused, their mailbox is full";
+        }
+        boolean[] added = new boolean[1];
+        mailboxes.compute(key(username), (name, mailbox) -> {
+            Mailbox box = mailbox != null ? mailbox : new Mailbox();
+            if (box.bytes + size <= ServerConfig.OFFLINE_BYTES_PER_USER) {
+                box.messages.addLast(message);
+                box.bytes += size;
+                added[0] = true;
+            }
+            return box.messages.isEmpty() ? null : box;
+        });
+        if (!added[0]) {
+            usedBytes.addAndGet(-size);
+            charge(message.from(), -size);
+            return "refused, their mailbox is full";
+        }
+        return null;
+    }
+
+    // false, and nothing charged, when it would take the sender over its share
+    private static boolean charge(String sender, long size) {
+        boolean[] charged = new boolean[1];
+        bySender.compute(key(sender), (name, used) -> {
+            long total = (used != null ? used : 0) + size;
+            if (size > 0 && total > ServerConfig.OFFLINE_BYTES_PER_SENDER) {
+                return used;
+            }
+            charged[0] = true;
+            return total > 0 ? total : null;
+        });
+        return charged[0];
+    }
+
+    // everything still fresh queued for the user, oldest first, and the mailbox is gone
+    static List<Pending> take(String username) {
+        Mailbox box = mailboxes.remove(key(username));
+        if (box == null) {
+            return List.of();
+        }
+        usedBytes.addAndGet(-box.bytes);
+        long now = System.currentTimeMillis();
+        List<Pending> fresh = new ArrayList<>(box.messages.size());
+        for (Pending message : box.messages) {
+            charge(message.from(), -message.bytes());
+            if (!message.isExpired(now)) {
+                fresh.add(message);
+            }
+        }
+        return fresh;
+    }
+
+    // messages are queued oldest first, so each mailbox is trimmed from its head
+    private static void removeExpired(long now) {
+        for (String name : mailboxes.keySet()) {
+            mailboxes.computeIfPresent(name, (key, box) -> {
+                while (!box.messages.isEmpty() && box.messages.peekFirst().isExpired(now)) {
+                    Pending message = box.messages.pollFirst();
+                    box.bytes -= message.bytes();
+                    usedBytes.addAndGet(-message.bytes());
+                    charge(message.from(), -message.bytes());
+                }
+                return box.messages.isEmpty() ? null : box;
+            });
+        }
+    }
+
+    public static long getUsedBytes() {
+        return usedBytes.get();
+    }
+}
@@ -0,0 +1,188 @@
+package ServerSide;
+
+import Protocol.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.*;
+
+// A server message encoded at most once per wire protocol, then shared by every recipient.
+// Text clients get a newline terminated line, binary clients a typed frame.
+public final class OutboundMessage {
+    private final Supplier<String> text;
+    private final Supplier<FrameWriter> frame;
+    private volatile byte[] textBytes;
+    private volatile byte[] frameBytes;
+    private volatile ByteBuffer textDirect;
+    private volatile ByteBuffer frameDirect;
+    // set once one NIO connection got the bytes, the next one makes the shared direct buffer
+    private volatile boolean textHanded;
+    private volatile boolean frameHanded;
+
+    private OutboundMessage(Supplier<String> text, Supplier<FrameWriter> frame) {
+        this.text = text;
+        this.frame = frame;
+    }
+
+    public static OutboundMessage of(String line) {
+        return new OutboundMessage(() -> line, () -> new FrameWriter(Opcode.TEXT).string(line));
+    }
+
+    public static OutboundMessage chat(String room, String message) {
+        return new OutboundMessage(() -> "[" + room + "] " + message,
+                () -> new FrameWriter(Opcode.MESSAGE).string(room).string(message));
+    }
+
+    // the room goes last in the frames, after the fields clients without several rooms read
+    public static OutboundMessage roster(String room, long version, List<String> names) {
+        return new OutboundMessage(() -> {
+            StringBuilder sb = new StringBuilder("Members: ").append(version).append(' ').append(room).append('\n');
+            names.forEach(name -> sb.append(name).append('\n'));
+            sb.append("\ndone\n");
+            return sb.toString();
+        }, () -> {
+            FrameWriter writer = new FrameWriter(Opcode.ROSTER).varint(version).varint(names.size());
+            names.forEach(writer::string);
+            return writer.string(room);
+        });
+    }
+
+    public static OutboundMessage rosterDelta(String room, long version, boolean joined, String username) {
+        return new OutboundMessage(() -> "Roster " + version + " " + room + (joined ? " +" : " -") + username,
+                () -> new FrameWriter(Opcode.ROSTER_DELTA).varint(version).varint(joined ? 1 : 0).string(username)
+                        .string(room));
+    }
+
+    // one page of the rooms whose name starts with prefix; nextPage is 0 on the last page
+    public static OutboundMessage roomList(Map<String, Integer> rooms, String prefix, int nextPage) {
+        return new OutboundMessage(() -> {
+            StringBuilder sb = new StringBuilder("Available rooms:\n");
+            rooms.forEach((name, count) ->
+                sb.append("- ").append(name).append(" (")
+                .append(count).append(" user").append(count != 1 ? "s" : "")
+                .append(")\n"));
+            if (nextPage > 0) {
+                sb.append("more: /rooms ").append(prefix.isEmpty() ? "*" : prefix).append(' ').append(nextPage).append('\n');
+            }
+            sb.append("done\n");
+            return sb.toString();
+        }, () -> {
+            FrameWriter writer = new FrameWriter(Opcode.ROOM_LIST).varint(rooms.size());
+            rooms.forEach((name, count) -> writer.string(name).varint(count));
+            return writer.string(prefix).varint(nextPage);
+        });
+    }
+
+    // several room messages in one write, oldest first; first is the sequence of the oldest
+    // one (or where an empty page ends), clients ask for the page before it to scroll back
+    public static OutboundMessage history(String room, long first, long[] sequences, String[] messages) {
+        return new OutboundMessage(() -> {
+            StringBuilder sb = new StringBuilder("History ").append(first).append(' ')
+                    .append(messages.length).append(' ').append(room);
+            for (String message : messages) {
+                sb.append("\n[").append(room).append("] ").append(message);
+            }
+            return sb.toString();
+        }, () -> {
+            FrameWriter writer = new FrameWriter(Opcode.HISTORY).string(room).varint(first).varint(messages.length);
+            for (int i = 0; i < messages.length; i++) {
+                writer.varint(sequences[i]).string(messages[i]);
+            }
+            return writer;
+        });
+    }
+
+    public static OutboundMessage resumeToken(String token) {
+        return new OutboundMessage(() -> "Resume " + token, () -> new FrameWriter(Opcode.RESUME_TOKEN).string(token));
+    }
+
+    public static OutboundMessage direct(String from, String text) {
+        return new OutboundMessage(() -> "[PM from " + from + "] " + text,
+                () -> new FrameWriter(Opcode.DIRECT).string(from).string(text));
+    }
+
+    public static OutboundMessage directAck(long id, String to, String status) {
+        return new OutboundMessage(() -> "[PM to " + to + "] message " + id + " " + status,
+                () -> new FrameWriter(Opcode.DIRECT_ACK).varint(id).string(to).string(status));
+    }
+
+    // room names have no spaces, so in the text form the room is the last word
+    public static OutboundMessage kick(String room, String notice) {
+        return new OutboundMessage(() -> notice + " " + room, () -> new FrameWriter(Opcode.KICK).string(notice).string(room));
+    }
+
+    public static OutboundMessage prompt() {
+        return new OutboundMessage(() -> "Enter your username:", () -> new FrameWriter(Opcode.PROMPT));
+    }
+
+    public static OutboundMessage welcome(String username) {
+        return new OutboundMessage(() -> username + " connected",
+                () -> new FrameWriter(Opcode.WELCOME).string(username));
+    }
+
+    // passed on from another cluster node, already encoded for the one client it goes to
+    static OutboundMessage encoded(byte[] bytes) {
+        OutboundMessage message = new OutboundMessage(() -> new String(bytes, StandardCharsets.UTF_8), null);
+        message.textBytes = bytes;
+        message.frameBytes = bytes;
+        return message;
+    }
+
+    // racing first calls may encode twice, which is harmless
+    byte[] bytes(boolean binary) {
+        if (binary) {
+            byte[] encoded = frameBytes;
+            if (encoded == null) {
+                encoded = frame.get().toBytes();
+                frameBytes = encoded;
+            }
+            return encoded;
+        }
+        byte[] encoded = textBytes;
+        if (encoded == null) {
+            encoded = (text.get() + "\n").getBytes(StandardCharsets.UTF_8);
+            textBytes = encoded;
+        }
+        return encoded;
+    }
+
+    public int length(boolean binary) {
+        return bytes(binary).length;
+    }
+
+    void writeTo(OutputStream out, boolean binary) throws IOException {
+        out.write(bytes(binary));
+    }
+
+    // Each caller gets its own position over one shared read-only direct buffer, so the NIO
+    // engine writes the same native memory to every member without copying it per socket.
+    // The first caller only gets the heap bytes wrapped: most messages go to one connection,
+    // and a direct buffer for those would cost an allocation and a copy that save nothing.
+    ByteBuffer buffer(boolean binary) {
+        ByteBuffer shared = binary ? frameDirect : textDirect;
+        if (shared != null) {
+            return shared.duplicate();
+        }
+        byte[] encoded = bytes(binary);
+        if (!(binary ? frameHanded : textHanded)) {
+            if (binary) {
+                frameHanded = true;
+            } else {
+                textHanded = true;
+            }
+            return ByteBuffer.wrap(encoded).asReadOnlyBuffer();
+        }
+        shared = ByteBuffer.allocateDirect(encoded.length).put(encoded).flip().asReadOnlyBuffer();
+        if (binary) {
+            frameDirect = shared;
+        } else {
+            textDirect = shared;
+        }
+        return shared.duplicate();
+    }
+
+    public String toString() {
+        return text.get();
+    }
+}
@@ -0,0 +1,130 @@
+package ServerSide;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+// Bounded per-client queue between broadcasters and the client's writer, so a slow
+// reader only ever fills its own queue instead of blocking the sender.
+public class OutboundQueue<T> {
+    private final ArrayDeque<T> items = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private boolean closed = false;
+    private long queued = 0;
+    private long dropped = 0;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    // returns false when the queue is full and the policy says to disconnect
+    public boolean offer(T item) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (items.size() >= capacity) {
+                switch (policy) {
+                    case DROP_NEWEST -> {
+                        dropped++;
+                        ServerStats.messagesDropped.increment();
+                        return true;
+                    }
+                    case DROP_OLDEST -> {
+                        items.pollFirst();
+                        dropped++;
+                        ServerStats.messagesDropped.increment();
+                    }
+                    case DISCONNECT -> {
+                        return false;
+                    }
+                }
+            }
+            items.addLast(item);
+            queued++;
+            ServerStats.messagesQueued.increment();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // blocks until an item is available; once closed it hands out what is left, then null
+    public T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public T poll() {
+        lock.lock();
+        try {
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // waits up to timeoutNanos for an item, returns null on timeout or once closed and empty
+    public T poll(long timeoutNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (items.isEmpty() && !closed && remaining > 0) {
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // stops accepting items; the ones already queued can still be taken
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package ServerSide;
+
+public enum OverflowPolicy {
+    DROP_OLDEST,
+    DROP_NEWEST,
+    DISCONNECT
+}
@@ -0,0 +1,124 @@
+package ServerSide;
+
+import Protocol.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// The sending half of the link to one other cluster node: a writer thread that keeps a
+// connection to the peer open, retrying every second, and writes queued frames in batches.
+// A message delivered to several members behind the same node goes out as one frame with
+// all their session ids, so a broadcast crosses the link once per node, not per member.
+final class PeerLink {
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int MAX_BATCH = 1024;
+    private final int node;
+    private final String host;
+    private final int port;
+    private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private volatile Socket socket;
+    private volatile boolean up = false;
+
+    private record Delivery(long session, byte[] payload) {
+    }
+
+    PeerLink(int node, String address) {
+        this.node = node;
+        this.host = Cluster.host(address);
+        this.port = Cluster.port(address);
+    }
+
+    void start() {
+        Thread.ofPlatform().daemon().name("cluster-link-" + node).start(this::run);
+    }
+
+    boolean isUp() {
+        return up;
+    }
+
+    // frames sent while the peer is down are dropped, the node catches up when it comes back
+    void send(byte[] frame) {
+        offer(frame);
+    }
+
+    void deliver(long session, byte[] payload) {
+        offer(new Delivery(session, payload));
+    }
+
+    private void offer(Object item) {
+        if (up && !queue.offer(item)) {
+            ServerStats.clusterDropped.increment();
+        }
+    }
+
+    // the writer notices the closed socket, reports the peer down and reconnects
+    void reset() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try (Socket s = new Socket()) {
+                s.bind(new InetSocketAddress(Cluster.bindAddress(), 0));
+                s.connect(new InetSocketAddress(host, port), 1000);
+                s.setTcpNoDelay(true);
+                OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+                out.write(new FrameWriter(Cluster.HELLO).varint(Cluster.self())
+                        .string(ServerConfig.CLUSTER_SECRET).toBytes());
+                out.flush();
+                socket = s;
+                up = true;
+                Cluster.peerUp(node);
+                writeLoop(out);
+            } catch (IOException e) {
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (up) {
+                up = false;
+                socket = null;
+                queue.clear();
+                Cluster.peerDown(node);
+            }
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void writeLoop(OutputStream out) throws IOException, InterruptedException {
+        List<Object> batch = new ArrayList<>();
+        while (true) {
+            batch.add(queue.take());
+            queue.drainTo(batch, MAX_BATCH - 1);
+            for (int i = 0; i < batch.size(); ) {
+                Object item = batch.get(i++);
+                if (item instanceof Delivery first) {
+                    int end = i;
+                    while (end < batch.size() && batch.get(end) instanceof Delivery next && next.payload == first.payload) {
+                        end++;
+                    }
+                    FrameWriter frame = new FrameWriter(Cluster.DELIVER).varint(end - i + 1).varint(first.session);
+                    for (; i < end; i++) {
+                        frame.varint(((Delivery) batch.get(i)).session);
+                    }
+                    out.write(frame.bytes(first.payload).toBytes());
+                } else {
+                    out.write((byte[]) item);
+                }
+                ServerStats.clusterFrames.increment();
+            }
+            batch.clear();
+            out.flush();
+        }
+    }
+}
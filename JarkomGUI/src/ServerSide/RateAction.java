@@ -0,0 +1,8 @@
+package ServerSide;
+
+// what happens to a line over a rate limit
+public enum RateAction {
+    DELAY,
+    DROP,
+    DISCONNECT
+}
@@ -0,0 +1,48 @@
+package ServerSide;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// A token bucket kept as a single timestamp (GCRA): the theoretical arrival time of the next
+// unit. Taking units moves it forward by their cost, and the take is allowed while it stays
+// within the burst of now. Lock-free with one CAS and nothing allocated per call.
+final class RateLimiter {
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong arrival = new AtomicLong(System.nanoTime());
+
+    RateLimiter(long perSecond, long burst) {
+        this.intervalNanos = Math.max(1, 1_000_000_000L / perSecond);
+        this.toleranceNanos = burst * intervalNanos;
+    }
+
+    // 0 when the units were taken, otherwise how long until they fit; nothing is taken then
+    long tryAcquire(long cost, long now) {
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + cost * intervalNanos;
+            long wait = next - toleranceNanos - now;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    // gives back units a tryAcquire took, when the other bucket refused the same line
+    void refund(long cost) {
+        arrival.addAndGet(-cost * intervalNanos);
+    }
+
+    // takes the units either way and returns how long the caller has to wait for them
+    long reserve(long cost, long now) {
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, now) + cost * intervalNanos;
+            if (arrival.compareAndSet(current, next)) {
+                return Math.max(0, next - toleranceNanos - now);
+            }
+        }
+    }
+}
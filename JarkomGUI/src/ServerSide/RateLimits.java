@@ -0,0 +1,64 @@
+package ServerSide;
+
+import java.util.concurrent.*;
+
+// The message and byte buckets of one connection or one room. Each bucket holds one second
+// worth of its rate; a rate of 0 leaves that bucket out.
+final class RateLimits {
+    private static final ConcurrentMap<String, RateLimits> rooms = new ConcurrentHashMap<>();
+    private final RateLimiter messages;
+    private final RateLimiter bytes;
+
+    private RateLimits(long messagesPerSecond, long bytesPerSecond) {
+        messages = messagesPerSecond > 0 ? new RateLimiter(messagesPerSecond, messagesPerSecond) : null;
+        bytes = bytesPerSecond > 0 ? new RateLimiter(bytesPerSecond, bytesPerSecond) : null;
+    }
+
+    // null when connections are not limited
+    static RateLimits forConnection() {
+        if (ServerConfig.RATE_MESSAGES <= 0 && ServerConfig.RATE_BYTES <= 0) {
+            return null;
+        }
+        return new RateLimits(ServerConfig.RATE_MESSAGES, ServerConfig.RATE_BYTES);
+    }
+
+    // shared by everyone talking in the room, null when rooms are not limited
+    static RateLimits forRoom(String room) {
+        if (ServerConfig.ROOM_RATE_MESSAGES <= 0 && ServerConfig.ROOM_RATE_BYTES <= 0) {
+            return null;
+        }
+        RateLimits limits = rooms.get(room);
+        return limits != null ? limits : rooms.computeIfAbsent(room,
+                name -> new RateLimits(ServerConfig.ROOM_RATE_MESSAGES, ServerConfig.ROOM_RATE_BYTES));
+    }
+
+    static void roomRemoved(String room) {
+        rooms.remove(room);
+    }
+
+    // 0 to go ahead, otherwise nanoseconds until the line fits; reserving takes the units anyway,
+    // otherwise a line that does not fit takes nothing
+    long acquire(int length, long now, boolean reserve) {
+        long wait = 0;
+        if (messages != null) {
+            wait = reserve ? messages.reserve(1, now) : messages.tryAcquire(1, now);
+        }
+        if (bytes != null && (wait == 0 || reserve)) {
+            wait = Math.max(wait, reserve ? bytes.reserve(length, now) : bytes.tryAcquire(length, now));
+            if (wait > 0 && !reserve && messages != null) {
+                messages.refund(1);
+            }
+        }
+        return wait;
+    }
+
+    // gives back what acquire took for a line that another set of limits refused
+    void refund(int length) {
+        if (messages != null) {
+            messages.refund(1);
+        }
+        if (bytes != null) {
+            bytes.refund(length);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ServerSide;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+// The last N broadcasts of one room in a ring preallocated with the room. Like the room it
+// is only written on the room's shard thread, so it needs no locks; the bytes it holds are
+// charged to one global budget, and RoomManager clears the history of the rooms that have
+// been quiet the longest once that budget is exceeded.
+public class RecentHistory {
+    private static final AtomicLong used = new AtomicLong();
+    private final String[] messages;
+    private final long[] sequences;
+    private int next = 0;
+    private int size = 0;
+    // read by RoomManager when picking rooms to evict
+    private volatile long bytes = 0;
+
+    public RecentHistory(int capacity) {
+        this.messages = new String[Math.max(1, capacity)];
+        this.sequences = new long[messages.length];
+    }
+
+    // rough heap cost of keeping one message string
+    private static long cost(String message) {
+        return 48 + 2L * message.length();
+    }
+
+    // true when the global budget is exceeded
+    public boolean add(long sequence, String message) {
+        long delta = cost(message);
+        if (size == messages.length) {
+            delta -= cost(messages[next]);
+        } else {
+            size++;
+        }
+        messages[next] = message;
+        sequences[next] = sequence;
+        next = (next + 1) % messages.length;
+        bytes += delta;
+        return used.addAndGet(delta) > ServerConfig.HISTORY_BUDGET_BYTES;
+    }
+
+    // all kept messages as one reply, oldest first; nextSequence anchors an empty reply
+    public OutboundMessage backfill(String room, long nextSequence) {
+        return page(room, nextSequence, messages.length, true);
+    }
+
+    // up to count messages before the given sequence, or null if part of that range is no
+    // longer kept and partial is false
+    public OutboundMessage page(String room, long before, int count, boolean partial) {
+        int start = (next - size + messages.length) % messages.length;
+        long from = Math.max(1, before - count);
+        if (!partial && (size == 0 || sequences[start] > from)) {
+            return null;
+        }
+        int first = 0;
+        while (first < size && sequences[(start + first) % messages.length] < from) {
+            first++;
+        }
+        int last = first;
+        while (last < size && sequences[(start + last) % messages.length] < before) {
+            last++;
+        }
+        long[] seqs = new long[last - first];
+        String[] texts = new String[last - first];
+        for (int i = first; i < last; i++) {
+            int slot = (start + i) % messages.length;
+            seqs[i - first] = sequences[slot];
+            texts[i - first] = messages[slot];
+        }
+        return OutboundMessage.history(room, seqs.length > 0 ? seqs[0] : before, seqs, texts);
+    }
+
+    public void clear() {
+        Arrays.fill(messages, null);
+        size = 0;
+        next = 0;
+        used.addAndGet(-bytes);
+        bytes = 0;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public static long getUsedBytes() {
+        return used.get();
+    }
+}
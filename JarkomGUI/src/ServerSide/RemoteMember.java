@@ -0,0 +1,76 @@
+package ServerSide;
+
+// Stands in, inside a room homed on this node, for a client connected to another cluster
+// node. The room treats it like any other member: what it is sent goes back over the link
+// already encoded for the client's protocol, and kicks are reported so the client's node
+// forgets the room as well.
+final class RemoteMember extends ClientHandler {
+    private final int node;
+    private final long session;
+    private final Link link;
+
+    RemoteMember(int node, long session, String username, boolean binary) {
+        this(new Link(node, session, binary), username);
+    }
+
+    private RemoteMember(Link link, String username) {
+        super(link, username);
+        this.node = link.node;
+        this.session = link.session;
+        this.link = link;
+    }
+
+    @Override
+    void kickFromRoom(String room, String notice) {
+        Cluster.kicked(node, session, room, notice);
+    }
+
+    // the client's node is gone or the client left it; the member is dropped from its rooms
+    void detach() {
+        link.close();
+    }
+
+    int getNode() {
+        return node;
+    }
+
+    long getSession() {
+        return session;
+    }
+
+    private static final class Link implements Connection {
+        private final int node;
+        private final long session;
+        private final boolean binary;
+        private volatile boolean closed = false;
+
+        Link(int node, long session, boolean binary) {
+            this.node = node;
+            this.session = session;
+            this.binary = binary;
+        }
+
+        public void send(OutboundMessage message) {
+            Cluster.deliver(node, session, message.bytes(binary));
+        }
+
+        public void switchToBinary() {
+        }
+
+        public boolean isBinary() {
+            return binary;
+        }
+
+        public int backlog() {
+            return 0;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+}
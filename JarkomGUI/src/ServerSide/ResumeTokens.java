@@ -0,0 +1,66 @@
+package ServerSide;
+
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Reconnect tokens. A token is issued at login and handed to the client once it is in a
+// room; when the connection drops the token remembers the rooms for chat.resumeGraceMillis,
+// and "/resume <token>" in place of a username logs back in and rejoins in one round trip.
+public class ResumeTokens {
+    private static final SecureRandom random = new SecureRandom();
+    private static final ConcurrentMap<String, Entry> tokens = new ConcurrentHashMap<>();
+
+    // rooms (space separated, the active one last) and expiry are only set once the session is gone
+    public record Entry(String username, String rooms, long expiresAt) {
+        boolean isDetached() {
+            return expiresAt != Long.MAX_VALUE;
+        }
+    }
+
+    static String issue(String username) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tokens.put(token, new Entry(username, null, Long.MAX_VALUE));
+        return token;
+    }
+
+    // the session is live again under the same token
+    static void attach(String token, String username) {
+        tokens.put(token, new Entry(username, null, Long.MAX_VALUE));
+    }
+
+    static void detach(String token, String username, String rooms) {
+        tokens.put(token, new Entry(username, rooms, System.currentTimeMillis() + ServerConfig.RESUME_GRACE_MILLIS));
+    }
+
+    static void revoke(String token) {
+        tokens.remove(token);
+    }
+
+    static Entry redeem(String token) {
+        Entry entry = tokens.get(token);
+        if (entry != null && entry.isDetached() && entry.expiresAt() < System.currentTimeMillis()) {
+            tokens.remove(token, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    static void removeExpired() {
+        long now = System.currentTimeMillis();
+        tokens.entrySet().removeIf(e -> e.getValue().isDetached() && e.getValue().expiresAt() < now);
+    }
+
+    // detached tokens only; live sessions are written with their current rooms by the snapshot
+    static Map<String, Entry> detached() {
+        Map<String, Entry> copy = new HashMap<>();
+        tokens.forEach((token, entry) -> {
+            if (entry.isDetached()) {
+                copy.put(token, entry);
+            }
+        });
+        return copy;
+    }
+}
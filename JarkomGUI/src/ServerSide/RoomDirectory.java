@@ -0,0 +1,84 @@
+package ServerSide;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// The /rooms listing. Room shards keep the member count of their rooms here as rooms are
+// created, joined, left and removed, in a map sorted by name so a prefix is one range of it.
+// Encoded pages are kept until the next change, so a burst of /rooms, e.g. from many clients
+// opening the room selector at once, costs one page build and then only lookups.
+public class RoomDirectory {
+    private static final int MAX_CACHED_PAGES = 1024;
+    private static final ConcurrentSkipListMap<String, Integer> rooms = new ConcurrentSkipListMap<>();
+    // bumped on every change; pages built for an older version are thrown away
+    private static final AtomicLong version = new AtomicLong();
+    private static volatile Cache cache = new Cache(-1, null);
+
+    // in cluster mode the view also holds the rooms gossiped by the other nodes
+    private record Cache(long version, NavigableMap<String, Integer> view,
+            ConcurrentMap<String, OutboundMessage> pages) {
+        Cache(long version, NavigableMap<String, Integer> view) {
+            this(version, view, new ConcurrentHashMap<>());
+        }
+    }
+
+    // runs on the room's shard, so the updates of one room arrive in order
+    static void update(String room, int members) {
+        Integer previous = rooms.put(room, members);
+        if (previous == null || previous != members) {
+            version.incrementAndGet();
+        }
+    }
+
+    static void remove(String room) {
+        if (rooms.remove(room) != null) {
+            version.incrementAndGet();
+        }
+    }
+
+    // the rooms of another node changed
+    static void changed() {
+        version.incrementAndGet();
+    }
+
+    // "/rooms [prefix] [page]", pages start at 1
+    static OutboundMessage list(String prefix, int page) {
+        Cache current = cache;
+        long now = version.get();
+        if (current.version() != now) {
+            current = new Cache(now, Cluster.isEnabled() ? new TreeMap<>(Cluster.getRoomInfo()) : rooms);
+            cache = current;
+        }
+        String key = prefix + '\n' + page;
+        OutboundMessage message = current.pages().get(key);
+        if (message == null) {
+            message = build(current.view(), prefix, page);
+            if (current.pages().size() < MAX_CACHED_PAGES) {
+                current.pages().put(key, message);
+            }
+        }
+        return message;
+    }
+
+    // walks only as far as the requested page and one entry past it, to tell if there is more
+    private static OutboundMessage build(NavigableMap<String, Integer> view, String prefix, int page) {
+        NavigableMap<String, Integer> range = prefix.isEmpty() ? view
+                : view.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+        int size = ServerConfig.ROOM_PAGE_SIZE;
+        long skip = (long) (page - 1) * size;
+        Map<String, Integer> entries = new LinkedHashMap<>();
+        boolean more = false;
+        for (Map.Entry<String, Integer> entry : range.entrySet()) {
+            if (skip > 0) {
+                skip--;
+            } else if (entries.size() < size) {
+                entries.put(entry.getKey(), entry.getValue());
+            } else {
+                more = true;
+                break;
+            }
+        }
+        return OutboundMessage.roomList(entries, prefix, more ? page + 1 : 0);
+    }
+}
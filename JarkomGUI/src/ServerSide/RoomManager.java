@@ -2,22 +2,281 @@ package ServerSide;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
+// Rooms are partitioned by name across a fixed set of shards. Each shard owns its rooms
+// and runs every operation on them on its single thread, actor style, so joins, leaves and
+// broadcasts of a room are sequenced without global or nested locks. Callers hand work
+// over by room name and never touch a ChatRoom directly. In cluster mode operations on rooms
+// homed on another node are forwarded there instead (see Cluster).
 public class RoomManager {
-    private static final ConcurrentMap<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+    private static final Shard[] shards = new Shard[Math.max(1, ServerConfig.ROOM_SHARDS)];
+    private static final AtomicBoolean evicting = new AtomicBoolean(false);
 
-    public static ChatRoom getOrCreateRoom(String name, ClientHandler owner) {
-        return rooms.computeIfAbsent(name, k -> new ChatRoom(name, owner));
+    static {
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    private static class Shard {
+        private final ExecutorService executor;
+        // only modified on the shard thread, read by getRoomInfo from anywhere
+        private final ConcurrentMap<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+
+        Shard(int index) {
+            executor = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "room-shard-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static Shard shardFor(String room) {
+        return shards[Math.floorMod(room.hashCode(), shards.length)];
+    }
+
+    private static void onRoom(String name, ClientHandler client, Consumer<ChatRoom> action) {
+        Shard shard = shardFor(name);
+        shard.executor.execute(() -> {
+            ChatRoom room = shard.rooms.get(name);
+            if (room != null && room.isMember(client)) {
+                action.accept(room);
+            }
+        });
+    }
+
+    public static void join(String name, ClientHandler client) {
+        if (Cluster.forward(name, client, Cluster.JOIN)) {
+            return;
+        }
+        Shard shard = shardFor(name);
+        shard.executor.execute(() -> {
+            ChatRoom room = shard.rooms.get(name);
+            if (room == null) {
+                room = new ChatRoom(name, client);
+                added(shard, room);
+            }
+            client.sendMessage("Joined room: " + name);
+            room.memberJoined(client);
+        });
+    }
+
+    public static void leave(String name, ClientHandler client, String notice) {
+        if (Cluster.forward(name, client, Cluster.LEAVE, frame -> frame.string(notice == null ? "" : notice))) {
+            return;
+        }
+        onRoom(name, client, room -> {
+            room.memberLeft(client);
+            if (notice != null) {
+                client.sendMessage(notice);
+            }
+        });
+    }
+
+    // /leave: the owner leaving closes the room for everyone
+    public static void leaveOrClose(String name, ClientHandler client) {
+        if (Cluster.forward(name, client, Cluster.LEAVE_OR_CLOSE)) {
+            return;
+        }
+        onRoom(name, client, room -> {
+            if (room.isOwner(client)) {
+                room.closeRoom();
+            } else {
+                room.memberLeft(client);
+                client.kickFromRoom(name, "kickOut by the host");
+            }
+        });
+    }
+
+    public static void close(String name, ClientHandler client) {
+        if (Cluster.forward(name, client, Cluster.CLOSE)) {
+            return;
+        }
+        onRoom(name, client, room -> {
+            if (room.isOwner(client)) {
+                room.closeRoom();
+            } else {
+                client.sendMessage("You are not the room owner.");
+            }
+        });
+    }
+
+    public static void kick(String name, ClientHandler client, String target) {
+        if (Cluster.forward(name, client, Cluster.KICK, frame -> frame.string(target))) {
+            return;
+        }
+        onRoom(name, client, room -> {
+            if (!room.isOwner(client)) {
+                client.sendMessage("Only room owners can kick users.");
+            } else if (room.kickUser(target)) {
+                client.sendMessage("User '" + target + "' has been kicked.");
+            } else {
+                client.sendMessage("User not found in the room.");
+            }
+        });
+    }
+
+    public static void broadcast(String name, ClientHandler client, String message) {
+        if (Cluster.forward(name, client, Cluster.SAY, frame -> frame.string(message))) {
+            return;
+        }
+        onRoom(name, client, room -> room.broadcast(message));
+    }
+
+    public static void history(String name, ClientHandler client, long before, int count) {
+        if (Cluster.forward(name, client, Cluster.HISTORY, frame -> frame.varint(before).varint(count))) {
+            return;
+        }
+        onRoom(name, client, room -> room.sendHistory(client, before, count));
+    }
+
+    public static void roster(String name, ClientHandler client) {
+        if (Cluster.forward(name, client, Cluster.ROSTER)) {
+            return;
+        }
+        onRoom(name, client, room -> client.sendMessage(room.roster()));
+    }
+
+    // published by another server sharing the room
+    static void deliver(String name, String message) {
+        Shard shard = shardFor(name);
+        shard.executor.execute(() -> {
+            ChatRoom room = shard.rooms.get(name);
+            if (room != null) {
+                room.deliver(message);
+            }
+        });
     }
 
     public static Map<String, Integer> getRoomInfo() {
         Map<String, Integer> info = new HashMap<>();
-        rooms.forEach((name, room) -> info.put(name, room.getMemberCount()));
+        for (Shard shard : shards) {
+            shard.rooms.forEach((name, room) -> info.put(name, room.getMemberCount()));
+        }
         return info;
     }
 
-    public static void removeRoomIfEmpty(String name) {
-        rooms.computeIfPresent(name, (k, v) -> v.getMemberCount() > 0 ? v : null);
+    public static void restore(ChatRoom.State state) {
+        Shard shard = shardFor(state.name());
+        shard.executor.execute(() -> added(shard, new ChatRoom(state)));
+    }
+
+    // a room handed over by the node that was its home; members that rejoined before it
+    // arrived already formed the room, which then takes over the owner and sequence
+    static void adopt(ChatRoom.State state) {
+        Shard shard = shardFor(state.name());
+        shard.executor.execute(() -> {
+            ChatRoom room = shard.rooms.get(state.name());
+            if (room != null) {
+                room.adopt(state);
+            } else {
+                added(shard, new ChatRoom(state));
+            }
+        });
+    }
+
+    // removes the rooms whose name matches from this node and passes each one on, on its shard
+    static void handOff(Predicate<String> moved, Consumer<ChatRoom> handOff) {
+        for (Shard shard : shards) {
+            shard.executor.execute(() -> shard.rooms.values().removeIf(room -> {
+                if (!moved.test(room.getName())) {
+                    return false;
+                }
+                handOff.accept(room);
+                removed(room);
+                return true;
+            }));
+        }
+    }
+
+    // drops members from every room, e.g. the stand-ins for a node that went down
+    static void removeMembers(Predicate<ClientHandler> gone) {
+        for (Shard shard : shards) {
+            shard.executor.execute(() -> List.copyOf(shard.rooms.values()).forEach(room -> room.removeMembers(gone)));
+        }
+    }
+
+    public static CompletableFuture<List<ChatRoom.State>> snapshot() {
+        List<CompletableFuture<List<ChatRoom.State>>> parts = new ArrayList<>();
+        for (Shard shard : shards) {
+            parts.add(CompletableFuture.supplyAsync(() -> {
+                List<ChatRoom.State> states = new ArrayList<>();
+                shard.rooms.values().forEach(room -> states.add(room.state()));
+                return states;
+            }, shard.executor));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            List<ChatRoom.State> all = new ArrayList<>();
+            parts.forEach(part -> all.addAll(part.join()));
+            return all;
+        });
+    }
+
+    // restored rooms stay until their grace period ends even while nobody is in them
+    public static void removeEmptyRooms() {
+        for (Shard shard : shards) {
+            shard.executor.execute(() -> List.copyOf(shard.rooms.values()).forEach(RoomManager::removeRoomIfEmpty));
+        }
+    }
+
+    // called by ChatRoom on its own shard thread
+    static void removeRoomIfEmpty(ChatRoom room) {
+        if (room.getMemberCount() == 0 && shardFor(room.getName()).rooms.remove(room.getName(), room)) {
+            removed(room);
+        }
+    }
+
+    // this server holds the room while it has members, and hears from the others meanwhile
+    private static void added(Shard shard, ChatRoom room) {
+        shard.rooms.put(room.getName(), room);
+        RoomDirectory.update(room.getName(), room.getMemberCount());
+        ChatServer.backplane().subscribe(room.getName());
+    }
+
+    private static void removed(ChatRoom room) {
+        room.clearHistory();
+        RoomDirectory.remove(room.getName());
+        RateLimits.roomRemoved(room.getName());
+        ChatServer.backplane().unsubscribe(room.getName());
+    }
+
+    // Called from a shard once the history budget is exceeded: drops the history of the
+    // least recently active rooms until usage is back under 90% of the budget. Each room is
+    // cleared on its own shard, and only one pass runs at a time.
+    static void evictIdleHistory() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+        List<ChatRoom> rooms = new ArrayList<>();
+        for (Shard shard : shards) {
+            rooms.addAll(shard.rooms.values());
+        }
+        rooms.sort(Comparator.comparingLong(ChatRoom::getLastActive));
+        long excess = RecentHistory.getUsedBytes() - ServerConfig.HISTORY_BUDGET_BYTES * 9 / 10;
+        List<CompletableFuture<Void>> cleared = new ArrayList<>();
+        for (ChatRoom room : rooms) {
+            if (excess <= 0) {
+                break;
+            }
+            long bytes = room.getHistoryBytes();
+            if (bytes > 0) {
+                excess -= bytes;
+                cleared.add(CompletableFuture.runAsync(room::clearHistory, shardFor(room.getName()).executor));
+            }
+        }
+        CompletableFuture.allOf(cleared.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((done, error) -> evicting.set(false));
+    }
+
+    // completes once every operation submitted so far has run
+    public static CompletableFuture<Void> sync() {
+        CompletableFuture<?>[] done = new CompletableFuture<?>[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            done[i] = CompletableFuture.runAsync(() -> { }, shards[i].executor);
+        }
+        return CompletableFuture.allOf(done);
     }
-    
-}
\ No newline at end of file
+}
@@ -0,0 +1,147 @@
+package ServerSide;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Periodic compact snapshots of room state and reconnect tokens, so a restarted server
+// comes back with its rooms, owners and sequence numbers and clients resume with a single
+// "/resume <token>" instead of logging in and rejoining. Off unless chat.snapshotFile is set.
+//
+//   int magic | long taken at
+//   int rooms, each: name | owner | long last sequence | long roster version | int n | n members
+//   int tokens, each: token | username | rooms ("" for none)
+//
+// Strings are an int byte count and UTF-8, writeUTF stops at 65535 bytes and a user's
+// joined rooms can be longer than that. Files of the first version, with writeUTF strings,
+// are still read.
+public class RoomSnapshots {
+    private static final int MAGIC = 0x43485332;
+    private static final int MAGIC_V1 = 0x43485331;
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "room-snapshots");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void start() throws IOException {
+        if (ServerConfig.SNAPSHOT_FILE == null) {
+            return;
+        }
+        Path file = Path.of(ServerConfig.SNAPSHOT_FILE);
+        if (Files.exists(file)) {
+            restore(file);
+        }
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                write(file);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Snapshot error: " + e.getMessage());
+            }
+        }, ServerConfig.SNAPSHOT_MILLIS, ServerConfig.SNAPSHOT_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                write(file);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Snapshot error: " + e.getMessage());
+            }
+        }));
+    }
+
+    private static void restore(Path file) throws IOException {
+        int rooms;
+        int tokens;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int magic = in.readInt();
+            if (magic != MAGIC && magic != MAGIC_V1) {
+                throw new IOException("not a room snapshot: " + file);
+            }
+            boolean v1 = magic == MAGIC_V1;
+            in.readLong();
+            rooms = in.readInt();
+            for (int i = 0; i < rooms; i++) {
+                String name = readString(in, v1);
+                String owner = readString(in, v1);
+                long lastSequence = in.readLong();
+                long rosterVersion = in.readLong();
+                List<String> members = new ArrayList<>();
+                for (int n = in.readInt(); n > 0; n--) {
+                    members.add(readString(in, v1));
+                }
+                RoomManager.restore(new ChatRoom.State(name, owner, lastSequence, rosterVersion, members));
+            }
+            tokens = in.readInt();
+            for (int i = 0; i < tokens; i++) {
+                String token = readString(in, v1);
+                String username = readString(in, v1);
+                String joined = readString(in, v1);
+                ResumeTokens.detach(token, username, joined.isEmpty() ? null : joined);
+            }
+        }
+        // rooms nobody came back to within the grace period go away like any empty room
+        scheduler.schedule(RoomManager::removeEmptyRooms, ServerConfig.RESUME_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        System.out.println("Restored " + rooms + " rooms and " + tokens + " reconnect tokens from " + file);
+    }
+
+    static void write(Path file) throws IOException {
+        List<ChatRoom.State> rooms = RoomManager.snapshot().join();
+        ResumeTokens.removeExpired();
+        Map<String, ResumeTokens.Entry> tokens = ResumeTokens.detached();
+        for (ClientHandler client : SessionRegistry.all()) {
+            String token = client.getResumeToken();
+            if (token != null) {
+                tokens.put(token, new ResumeTokens.Entry(client.getUsername(), client.getJoinedRooms(), 0));
+            }
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            out.writeInt(MAGIC);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(rooms.size());
+            for (ChatRoom.State room : rooms) {
+                writeString(out, room.name());
+                writeString(out, room.owner());
+                out.writeLong(room.lastSequence());
+                out.writeLong(room.rosterVersion());
+                out.writeInt(room.members().size());
+                for (String member : room.members()) {
+                    writeString(out, member);
+                }
+            }
+            out.writeInt(tokens.size());
+            for (Map.Entry<String, ResumeTokens.Entry> token : tokens.entrySet()) {
+                writeString(out, token.getKey());
+                writeString(out, token.getValue().username());
+                writeString(out, token.getValue().rooms() == null ? "" : token.getValue().rooms());
+            }
+            // on disk before the rename, or a crash can leave the new name on an empty file
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, boolean v1) throws IOException {
+        if (v1) {
+            return in.readUTF();
+        }
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("bad string length in room snapshot: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,86 @@
+package ServerSide;
+
+import Storage.*;
+
+public class ServerConfig {
+    public static final int PORT = Integer.getInteger("chat.port", 1234);
+    // "blocking" (one platform thread per client), "virtual" (one virtual thread per client)
+    // or "nio" (selector event loops)
+    public static final String ENGINE = System.getProperty("chat.engine", "blocking");
+    public static final int NIO_THREADS = Integer.getInteger("chat.nioThreads",
+            Runtime.getRuntime().availableProcessors());
+    // 0 means unlimited
+    public static final int MAX_CONNECTIONS = Integer.getInteger("chat.maxConnections", 0);
+    // when full: true sends a rejection message, false stops accepting until a client leaves
+    public static final boolean REJECT_WHEN_FULL = Boolean.getBoolean("chat.rejectWhenFull");
+    // connections still in the username handshake: how many may exist at once and for how long
+    public static final int MAX_PENDING_LOGINS = Integer.getInteger("chat.maxPendingLogins", 256);
+    public static final int HANDSHAKE_TIMEOUT_MILLIS = Integer.getInteger("chat.handshakeTimeoutMillis", 120_000);
+    // per-client outbound queue, so one slow reader cannot stall a room
+    public static final int OUTBOUND_CAPACITY = Integer.getInteger("chat.outboundCapacity", 1024);
+    public static final OverflowPolicy OVERFLOW_POLICY = OverflowPolicy.valueOf(
+            System.getProperty("chat.overflowPolicy", "drop_oldest").toUpperCase());
+    // output coalescing: a flush happens once FLUSH_BYTES are pending or the queue runs dry,
+    // optionally lingering FLUSH_DELAY for more lines to arrive
+    public static final int FLUSH_BYTES = Integer.getInteger("chat.flushBytes", 8192);
+    public static final long FLUSH_DELAY_NANOS = Long.getLong("chat.flushDelayMicros", 0) * 1000;
+    public static final boolean TCP_NO_DELAY = Boolean.getBoolean("chat.tcpNoDelay");
+    // rooms are spread over this many single-threaded shards
+    public static final int ROOM_SHARDS = Integer.getInteger("chat.roomShards",
+            Runtime.getRuntime().availableProcessors());
+    // rooms one connection can be in at once, joining one more leaves the one joined first
+    public static final int MAX_ROOMS_PER_CLIENT = Math.max(1, Integer.getInteger("chat.maxRoomsPerClient", 32));
+    // /msg to users who are not in a room waits in a mailbox of at most this many bytes per
+    // user and per sender, within one budget for all mailboxes, for at most the expiry
+    public static final long OFFLINE_BYTES_PER_USER = Long.getLong("chat.offlineBytesPerUser", 64 * 1024);
+    public static final long OFFLINE_BYTES_PER_SENDER = Long.getLong("chat.offlineBytesPerSender", 256 * 1024);
+    public static final long OFFLINE_BUDGET_BYTES = Long.getLong("chat.offlineBudgetBytes", 64L * 1024 * 1024);
+    public static final long OFFLINE_EXPIRY_MILLIS = Long.getLong("chat.offlineExpiryMillis", 24L * 60 * 60 * 1000);
+    // rooms per page of /rooms
+    public static final int ROOM_PAGE_SIZE = Math.max(1, Integer.getInteger("chat.roomPageSize", 50));
+    public static final int MAX_LINE_LENGTH = Integer.getInteger("chat.maxLineLength", 64 * 1024);
+    // flood control: messages and bytes per second for each connection (any line) and for
+    // each room (chat lines of all its members together), 0 turns a limit off
+    public static final int RATE_MESSAGES = Integer.getInteger("chat.rateMessages", 50);
+    public static final int RATE_BYTES = Integer.getInteger("chat.rateBytes", 256 * 1024);
+    public static final int ROOM_RATE_MESSAGES = Integer.getInteger("chat.roomRateMessages", 0);
+    public static final int ROOM_RATE_BYTES = Integer.getInteger("chat.roomRateBytes", 0);
+    // the NIO engine cannot hold a line back, there delay drops instead
+    public static final RateAction RATE_ACTION = RateAction.valueOf(
+            System.getProperty("chat.rateAction", "drop").toUpperCase());
+    // recent messages kept per room and sent to members when they join, within one budget
+    // for all rooms
+    public static final int HISTORY_SIZE = Integer.getInteger("chat.historySize", 50);
+    public static final long HISTORY_BUDGET_BYTES = Long.getLong("chat.historyBudgetBytes", 64L * 1024 * 1024);
+    // per-room message log on disk, off unless chat.logDir is set
+    public static final String LOG_DIR = System.getProperty("chat.logDir");
+    public static final int LOG_SEGMENT_BYTES = Integer.getInteger("chat.logSegmentBytes", 16 * 1024 * 1024);
+    public static final FsyncPolicy LOG_FSYNC = FsyncPolicy.valueOf(
+            System.getProperty("chat.logFsync", "interval").toUpperCase());
+    public static final long LOG_FSYNC_MILLIS = Long.getLong("chat.logFsyncMillis", 1000);
+    // per room: sealed segments are deleted past either limit
+    public static final long LOG_RETENTION_BYTES = Long.getLong("chat.logRetentionBytes", 1024L * 1024 * 1024);
+    public static final long LOG_RETENTION_HOURS = Long.getLong("chat.logRetentionHours", 24 * 7);
+    public static final int LOG_QUEUE_CAPACITY = Integer.getInteger("chat.logQueueCapacity", 64 * 1024);
+    // rooms whose log files stay mapped, the least recently used beyond that are unmapped
+    public static final int LOG_OPEN_ROOMS = Integer.getInteger("chat.logOpenRooms", 256);
+    // room snapshots for fast restarts, off unless chat.snapshotFile is set; reconnect tokens
+    // keep a dropped client's room for the grace period either way
+    public static final String SNAPSHOT_FILE = System.getProperty("chat.snapshotFile");
+    public static final long SNAPSHOT_MILLIS = Long.getLong("chat.snapshotMillis", 10_000);
+    public static final long RESUME_GRACE_MILLIS = Long.getLong("chat.resumeGraceMillis", 120_000);
+    // cluster mode, off unless chat.clusterNodes lists the inter-node address (host:port) of
+    // every node, the same list everywhere, and chat.clusterSelf is this node's index in it;
+    // nodes only accept links from those addresses that present chat.clusterSecret
+    public static final String CLUSTER_NODES = System.getProperty("chat.clusterNodes");
+    public static final int CLUSTER_SELF = Integer.getInteger("chat.clusterSelf", -1);
+    public static final String CLUSTER_SECRET = System.getProperty("chat.clusterSecret");
+    // "local" keeps every room in this process, "broker" shares rooms with the other servers
+    // connected to the BackplaneBroker at chat.brokerAddress, which listens on that address
+    // and only lets in servers that present chat.brokerSecret
+    public static final String BACKPLANE = System.getProperty("chat.backplane", "local");
+    public static final String BROKER_ADDRESS = System.getProperty("chat.brokerAddress", "localhost:7400");
+    public static final String BROKER_SECRET = System.getProperty("chat.brokerSecret");
+    // plain-text metrics on localhost, 0 turns the endpoint off (the JMX MBean is always there)
+    public static final int METRICS_PORT = Integer.getInteger("chat.metricsPort", 0);
+}
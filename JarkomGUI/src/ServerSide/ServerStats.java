@@ -0,0 +1,147 @@
+package ServerSide;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class ServerStats {
+    static final LongAdder messagesQueued = new LongAdder();
+    static final LongAdder messagesDropped = new LongAdder();
+    static final LongAdder slowConsumersDisconnected = new LongAdder();
+    static final LongAdder flushes = new LongAdder();
+    static final LongAdder linesFlushed = new LongAdder();
+    static final LongAdder connectionsOpened = new LongAdder();
+    static final LongAdder connectionsClosed = new LongAdder();
+    static final LongAdder logins = new LongAdder();
+    static final LongAdder broadcasts = new LongAdder();
+    static final LongAdder deliveries = new LongAdder();
+    static final LongAdder bytesIn = new LongAdder();
+    static final LongAdder bytesOut = new LongAdder();
+    static final LongAdder clusterFrames = new LongAdder();
+    static final LongAdder clusterDropped = new LongAdder();
+    static final LongAdder throttledDelayed = new LongAdder();
+    static final LongAdder throttledDropped = new LongAdder();
+    static final LongAdder throttledDisconnected = new LongAdder();
+    static final LongAdder backplaneReceived = new LongAdder();
+    static final LongAdder backplaneDropped = new LongAdder();
+    static final LongAdder directDelivered = new LongAdder();
+    static final LongAdder directQueued = new LongAdder();
+    static final LongAdder directRefused = new LongAdder();
+    // keyed by the fixed set of names from ClientHandler, so the map stays small
+    private static final ConcurrentMap<String, Histogram> commandLatency = new ConcurrentHashMap<>();
+
+    static void flushed(int lines) {
+        flushes.increment();
+        linesFlushed.add(lines);
+    }
+
+    static void commandHandled(String command, long startNanos) {
+        commandLatency.computeIfAbsent(command, c -> new Histogram()).record(System.nanoTime() - startNanos);
+    }
+
+    static InputStream countingInput(InputStream in) {
+        return new FilterInputStream(in) {
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    bytesIn.increment();
+                }
+                return b;
+            }
+
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) {
+                    bytesIn.add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    public static long getMessagesQueued() {
+        return messagesQueued.sum();
+    }
+
+    public static long getMessagesDropped() {
+        return messagesDropped.sum();
+    }
+
+    public static long getSlowConsumersDisconnected() {
+        return slowConsumersDisconnected.sum();
+    }
+
+    public static double getAverageLinesPerFlush() {
+        long count = flushes.sum();
+        return count == 0 ? 0 : (double) linesFlushed.sum() / count;
+    }
+
+    public static long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    public static long getLogins() {
+        return logins.sum();
+    }
+
+    public static long getBroadcasts() {
+        return broadcasts.sum();
+    }
+
+    public static long getDeliveries() {
+        return deliveries.sum();
+    }
+
+    public static long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    public static long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public static long getClusterFrames() {
+        return clusterFrames.sum();
+    }
+
+    public static long getClusterDropped() {
+        return clusterDropped.sum();
+    }
+
+    public static long getThrottledDelayed() {
+        return throttledDelayed.sum();
+    }
+
+    public static long getThrottledDropped() {
+        return throttledDropped.sum();
+    }
+
+    public static long getThrottledDisconnected() {
+        return throttledDisconnected.sum();
+    }
+
+    public static long getBackplaneReceived() {
+        return backplaneReceived.sum();
+    }
+
+    public static long getBackplaneDropped() {
+        return backplaneDropped.sum();
+    }
+
+    public static long getDirectDelivered() {
+        return directDelivered.sum();
+    }
+
+    public static long getDirectQueued() {
+        return directQueued.sum();
+    }
+
+    public static long getDirectRefused() {
+        return directRefused.sum();
+    }
+
+    public static Map<String, Histogram> getCommandLatency() {
+        return new TreeMap<>(commandLatency);
+    }
+}
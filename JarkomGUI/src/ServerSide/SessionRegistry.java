@@ -0,0 +1,34 @@
+package ServerSide;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+// Logged-in sessions by case-insensitive username. Reserving a name is a single
+// putIfAbsent, so two logins racing for the same name cannot both win.
+public class SessionRegistry {
+    private static final ConcurrentMap<String, ClientHandler> sessions = new ConcurrentHashMap<>();
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    public static boolean reserve(String username, ClientHandler client) {
+        return sessions.putIfAbsent(key(username), client) == null;
+    }
+
+    public static boolean release(String username, ClientHandler client) {
+        return username != null && sessions.remove(key(username), client);
+    }
+
+    public static ClientHandler find(String username) {
+        return sessions.get(key(username));
+    }
+
+    public static Collection<ClientHandler> all() {
+        return sessions.values();
+    }
+
+    public static int size() {
+        return sessions.size();
+    }
+}
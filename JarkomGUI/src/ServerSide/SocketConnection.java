@@ -0,0 +1,108 @@
+package ServerSide;
+
+import java.io.*;
+import java.net.*;
+
+public class SocketConnection implements Connection {
+    // a client that stops reading gets its socket closed this long after close() anyway
+    private static final long CLOSE_DRAIN_MILLIS = 2000;
+    private static final int CLOSE_LINGER_SECONDS = 1;
+    private final Socket socket;
+    private final OutputStream out;
+    private volatile boolean binary = false;
+    private volatile boolean closing = false;
+    private final OutboundQueue<OutboundMessage> queue =
+            new OutboundQueue<>(ServerConfig.OUTBOUND_CAPACITY, ServerConfig.OVERFLOW_POLICY);
+
+    public SocketConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(ServerConfig.TCP_NO_DELAY);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), ServerConfig.FLUSH_BYTES);
+        ChatServer.execute(this::writeLoop);
+    }
+
+    public void send(OutboundMessage message) {
+        if (!queue.offer(message)) {
+            ServerStats.slowConsumersDisconnected.increment();
+            // the reader thread notices the closed socket and shuts the handler down
+            abort();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            OutboundMessage message;
+            while ((message = queue.take()) != null) {
+                long deadline = System.nanoTime() + ServerConfig.FLUSH_DELAY_NANOS;
+                int lines = 0;
+                int bytes = 0;
+                do {
+                    message.writeTo(out, binary);
+                    lines++;
+                    bytes += message.length(binary);
+                    if (bytes >= ServerConfig.FLUSH_BYTES) {
+                        break;
+                    }
+                    long linger = deadline - System.nanoTime();
+                    message = linger > 0 ? queue.poll(linger) : queue.poll();
+                } while (message != null);
+                out.flush();
+                ServerStats.flushed(lines);
+                ServerStats.bytesOut.add(bytes);
+            }
+            // drained after close(), e.g. a kick or throttle notice before the disconnect
+            closeSocket(CLOSE_LINGER_SECONDS);
+        } catch (IOException e) {
+            abort();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void switchToBinary() {
+        binary = true;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public OutboundQueue<OutboundMessage> getQueue() {
+        return queue;
+    }
+
+    public int backlog() {
+        return queue.size();
+    }
+
+    public boolean isClosed() {
+        return closing || socket.isClosed();
+    }
+
+    // stops taking messages; the writer sends what is already queued and then closes the socket
+    public void close() {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        queue.close();
+        ChatServer.schedule(() -> closeSocket(0), CLOSE_DRAIN_MILLIS);
+    }
+
+    // overflowed or broken, nothing queued is worth waiting for
+    private void abort() {
+        closing = true;
+        queue.close();
+        closeSocket(0);
+    }
+
+    private void closeSocket(int lingerSeconds) {
+        try {
+            if (!socket.isClosed()) {
+                socket.setSoLinger(true, lingerSeconds);
+            }
+            socket.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package Storage;
+
+public enum FsyncPolicy {
+    // leave it to the OS, a crash of the machine may lose recent messages
+    NEVER,
+    // force dirty segments every fsyncMillis of the LogConfig
+    INTERVAL,
+    // force after every batch the writer drains (group commit)
+    ALWAYS
+}
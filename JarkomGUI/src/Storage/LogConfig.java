@@ -0,0 +1,6 @@
+package Storage;
+
+// How the server wants its message log kept; dir null leaves the log off
+public record LogConfig(String dir, int segmentBytes, FsyncPolicy fsync, long fsyncMillis,
+        long retentionBytes, long retentionHours, int queueCapacity, int openRooms) {
+}
@@ -0,0 +1,4 @@
+package Storage;
+
+public record LogRecord(long sequence, long timestamp, String text) {
+}
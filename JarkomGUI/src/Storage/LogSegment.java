@@ -0,0 +1,199 @@
+package Storage;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+// One fixed-size, memory-mapped file of records:
+//   int length | int crc32c | long seq | long timestamp | length bytes of UTF-8 text
+// A zero length marks the end of what has been written. The crc covers everything after it,
+// so a record torn by a crash is detected and dropped on recovery.
+class LogSegment {
+    static final int HEADER = 24;
+    // one sparse index entry per this many records, so a lookup is a binary search plus a
+    // short forward scan
+    private static final int INDEX_INTERVAL = 64;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long firstSequence;
+    private long lastSequence;
+    // end of the last intact record
+    private int end = 0;
+    private int records = 0;
+    private long[] indexSequences = new long[16];
+    private int[] indexPositions = new int[16];
+    private int indexSize = 0;
+    private final CRC32C crc = new CRC32C();
+
+    private LogSegment(Path path, long firstSequence, FileChannel channel, MappedByteBuffer buffer) {
+        this.path = path;
+        this.firstSequence = firstSequence;
+        this.lastSequence = firstSequence - 1;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    static String fileName(long firstSequence) {
+        return String.format("%020d.log", firstSequence);
+    }
+
+    static long firstSequence(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - 4));
+    }
+
+    private static LogSegment map(Path file, int size) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        return new LogSegment(file, firstSequence(file), channel, buffer);
+    }
+
+    static LogSegment create(Path dir, long firstSequence, int size) throws IOException {
+        return map(dir.resolve(fileName(firstSequence)), size);
+    }
+
+    // maps an existing segment for appending, positioned after its last intact record
+    static LogSegment recover(Path file, int size) throws IOException {
+        LogSegment segment = map(file, size);
+        segment.scan();
+        int end = segment.end;
+        if (end + 4 <= segment.buffer.capacity() && segment.buffer.getInt(end) != 0) {
+            // a torn record: clear the tail so nothing stale is read back after new appends
+            for (int i = end; i < segment.buffer.capacity(); i++) {
+                segment.buffer.put(i, (byte) 0);
+            }
+        }
+        segment.buffer.position(end);
+        return segment;
+    }
+
+    // maps a sealed segment read-only, for history reads
+    static LogSegment openSealed(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            LogSegment segment = new LogSegment(file, firstSequence(file), null, buffer);
+            segment.scan();
+            return segment;
+        }
+    }
+
+    private void scan() {
+        int length;
+        while ((length = validRecordAt(end)) >= 0) {
+            indexRecord(buffer.getLong(end + 8), end);
+            end += HEADER + length;
+        }
+    }
+
+    private void indexRecord(long sequence, int position) {
+        if (records++ % INDEX_INTERVAL == 0) {
+            if (indexSize == indexSequences.length) {
+                indexSequences = Arrays.copyOf(indexSequences, indexSize * 2);
+                indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+            }
+            indexSequences[indexSize] = sequence;
+            indexPositions[indexSize++] = position;
+        }
+        lastSequence = sequence;
+    }
+
+    // length of the intact record at position, or -1 at the end of the written part
+    private int validRecordAt(int position) {
+        if (position + HEADER > buffer.capacity()) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + HEADER + length > buffer.capacity()) {
+            return -1;
+        }
+        crc.reset();
+        crc.update(buffer.slice(position + 8, HEADER - 8 + length));
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? length : -1;
+    }
+
+    // false when the record does not fit and the log has to roll to a new segment
+    boolean append(long sequence, long timestamp, byte[] text) {
+        int position = end;
+        if (position + HEADER + text.length > buffer.capacity()) {
+            return false;
+        }
+        buffer.putLong(position + 8, sequence);
+        buffer.putLong(position + 16, timestamp);
+        buffer.put(position + HEADER, text);
+        crc.reset();
+        crc.update(buffer.slice(position + 8, HEADER - 8 + text.length));
+        buffer.putInt(position + 4, (int) crc.getValue());
+        // length goes in last: until then the record reads as the end of the log
+        buffer.putInt(position, text.length);
+        end = position + HEADER + text.length;
+        indexRecord(sequence, position);
+        return true;
+    }
+
+    // adds records with from <= seq < before, oldest first, until out holds max records
+    void read(long from, long before, int max, List<LogRecord> out) {
+        int slot = Arrays.binarySearch(indexSequences, 0, indexSize, from);
+        if (slot < 0) {
+            slot = Math.max(0, -slot - 2);
+        }
+        int position = indexSize == 0 ? end : indexPositions[slot];
+        while (position < end && out.size() < max) {
+            int length = buffer.getInt(position);
+            long sequence = buffer.getLong(position + 8);
+            if (sequence >= before) {
+                break;
+            }
+            if (sequence >= from) {
+                byte[] text = new byte[length];
+                buffer.get(position + HEADER, text);
+                out.add(new LogRecord(sequence, buffer.getLong(position + 16),
+                        new String(text, StandardCharsets.UTF_8)));
+            }
+            position += HEADER + length;
+        }
+    }
+
+    static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    // a full segment keeps its size, a file cannot be truncated while it is mapped on every
+    // platform; readers stop at the zero length after the last record. The mapping must not
+    // be touched afterwards
+    void seal() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    int getWrittenBytes() {
+        return end;
+    }
+}
@@ -0,0 +1,234 @@
+package Storage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+// Durable per-room history. Room shards hand records over with append, which only enqueues;
+// a single writer thread drains whatever has piled up, appends it to the rooms' mapped
+// segments and forces them according to the fsync policy, so one fsync covers a whole batch
+// and disk latency never reaches the broadcast path. Off unless the config names a directory.
+public class MessageLog {
+    private static final int BATCH = 4096;
+    private static final long RETENTION_CHECK_MILLIS = 60_000;
+    private static Path root;
+    private static LogConfig config;
+    private static volatile boolean running = false;
+    private static Thread writer;
+    // made by start, before running is set
+    private static BlockingQueue<Op> pending;
+    // highest sequence handed to append per room, so a room recreated after it emptied (or
+    // after a restart) carries on numbering where it left off
+    private static final ConcurrentMap<String, Long> lastSequences = new ConcurrentHashMap<>();
+    // writer thread only once started; every room with a log, and the ones with their files
+    // mapped, least recently used first. The others are released until they are used again
+    private static final Map<String, RoomLog> logs = new HashMap<>();
+    private static final Map<String, RoomLog> open = new LinkedHashMap<>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, RoomLog> eldest) {
+            if (size() <= config.openRooms()) {
+                return false;
+            }
+            try {
+                eldest.getValue().release();
+            } catch (IOException e) {
+                System.out.println("Message log error in " + eldest.getKey() + ": " + e.getMessage());
+            }
+            return true;
+        }
+    };
+    private static final LongAdder written = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+    private static final LongAdder syncs = new LongAdder();
+
+    private interface Op {
+    }
+
+    private record Entry(String room, long sequence, long timestamp, String text) implements Op {
+    }
+
+    // reads go through the same queue, so they see every append made before them
+    private record Read(String room, long before, int count, Consumer<List<LogRecord>> reply) implements Op {
+    }
+
+    public static void start(LogConfig logConfig) throws IOException {
+        if (logConfig.dir() == null) {
+            return;
+        }
+        config = logConfig;
+        pending = new ArrayBlockingQueue<>(config.queueCapacity());
+        root = Path.of(config.dir());
+        Files.createDirectories(root);
+        try (Stream<Path> rooms = Files.list(root)) {
+            for (Path dir : rooms.filter(Files::isDirectory).collect(Collectors.toList())) {
+                String room = RoomLog.roomName(dir);
+                RoomLog log = RoomLog.open(root, room, config.segmentBytes());
+                logs.put(room, log);
+                open.put(room, log);
+                lastSequences.put(room, log.getLastSequence());
+            }
+        }
+        System.out.println("Message log in " + root.toAbsolutePath() + " (" + logs.size() + " rooms)");
+        running = true;
+        writer = new Thread(MessageLog::writeLoop, "message-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(MessageLog::stop));
+    }
+
+    public static boolean isEnabled() {
+        return running;
+    }
+
+    public static long lastSequence(String room) {
+        return lastSequences.getOrDefault(room, 0L);
+    }
+
+    // called on the room's shard thread, never blocks: if the writer is that far behind the
+    // record is counted as dropped rather than stalling the room
+    public static void append(String room, long sequence, String text) {
+        if (!running) {
+            return;
+        }
+        lastSequences.put(room, sequence);
+        if (!pending.offer(new Entry(room, sequence, System.currentTimeMillis(), text))) {
+            dropped.increment();
+        }
+    }
+
+    // hands up to count records before the given sequence to reply, on the writer thread;
+    // reply gets null if the log is off or too busy to take the request
+    public static void read(String room, long before, int count, Consumer<List<LogRecord>> reply) {
+        if (!running || !pending.offer(new Read(room, before, count, reply))) {
+            reply.accept(null);
+        }
+    }
+
+    private static void writeLoop() {
+        List<Op> batch = new ArrayList<>(BATCH);
+        Set<RoomLog> dirty = new HashSet<>();
+        long nextSync = System.currentTimeMillis() + config.fsyncMillis();
+        long nextRetention = System.currentTimeMillis();
+        while (running || !pending.isEmpty()) {
+            try {
+                Op first = pending.poll(Math.max(1, config.fsyncMillis()), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    pending.drainTo(batch, BATCH - 1);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            for (Op op : batch) {
+                if (op instanceof Read read) {
+                    read(read);
+                    continue;
+                }
+                Entry entry = (Entry) op;
+                try {
+                    RoomLog log = logFor(entry.room());
+                    log.append(entry.sequence(), entry.timestamp(), entry.text());
+                    dirty.add(log);
+                    written.increment();
+                } catch (IOException e) {
+                    dropped.increment();
+                    System.out.println("Message log error in " + entry.room() + ": " + e.getMessage());
+                }
+            }
+            batch.clear();
+            long now = System.currentTimeMillis();
+            if (config.fsync() == FsyncPolicy.ALWAYS
+                    || (config.fsync() == FsyncPolicy.INTERVAL && now >= nextSync)) {
+                sync(dirty);
+                nextSync = now + config.fsyncMillis();
+            }
+            if (now >= nextRetention) {
+                applyRetention();
+                nextRetention = now + RETENTION_CHECK_MILLIS;
+            }
+        }
+        sync(dirty);
+        for (RoomLog log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static void read(Read read) {
+        List<LogRecord> records = List.of();
+        RoomLog log = logs.get(read.room());
+        if (log != null) {
+            open.put(read.room(), log);
+            try {
+                records = log.read(read.before(), read.count());
+            } catch (IOException e) {
+                System.out.println("Message log read error in " + read.room() + ": " + e.getMessage());
+            }
+        }
+        read.reply().accept(records);
+    }
+
+    private static RoomLog logFor(String room) throws IOException {
+        RoomLog log = logs.get(room);
+        if (log == null) {
+            log = RoomLog.open(root, room, config.segmentBytes());
+            logs.put(room, log);
+        }
+        open.put(room, log);
+        return log;
+    }
+
+    private static void sync(Set<RoomLog> dirty) {
+        for (RoomLog log : dirty) {
+            if (log.sync()) {
+                syncs.increment();
+            }
+        }
+        dirty.clear();
+    }
+
+    private static void applyRetention() {
+        long maxAge = TimeUnit.HOURS.toMillis(config.retentionHours());
+        for (RoomLog log : logs.values()) {
+            try {
+                log.applyRetention(config.retentionBytes(), maxAge);
+            } catch (IOException e) {
+                System.out.println("Message log retention error in " + log.getRoom() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // drains what is queued and forces it to disk
+    public static void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static long getRecordsWritten() {
+        return written.sum();
+    }
+
+    public static long getRecordsDropped() {
+        return dropped.sum();
+    }
+
+    public static long getSyncs() {
+        return syncs.sum();
+    }
+
+    public static int getBacklog() {
+        return running ? pending.size() : 0;
+    }
+}
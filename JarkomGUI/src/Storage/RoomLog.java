@@ -0,0 +1,175 @@
+package Storage;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.stream.*;
+
+// The segments of one room: older sealed files plus the active, mapped one that appends go
+// to. Only touched by MessageLog's writer thread once the server is running. A released log
+// keeps only the names and sizes of its files and maps them again when it is used.
+class RoomLog {
+    private static final int MAX_OPENED = 8;
+    private final String room;
+    private final Path dir;
+    private final int segmentBytes;
+    // by first sequence, not including the active segment
+    private final TreeMap<Long, Path> sealed = new TreeMap<>();
+    // sealed segments mapped for history reads, least recently read first; a segment dropped
+    // from here, or deleted by retention, is unmapped once nothing reads it anymore
+    private final Map<Long, LogSegment> opened = new LinkedHashMap<>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Long, LogSegment> eldest) {
+            return size() > MAX_OPENED;
+        }
+    };
+    private LogSegment active;
+    // while released: the active segment's file, how much of it is written and its last sequence
+    private Path idleFile;
+    private int idleBytes;
+    private long idleLastSequence;
+    private boolean dirty = false;
+
+    private RoomLog(String room, Path dir, int segmentBytes) {
+        this.room = room;
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+    }
+
+    // room names become directory names, so anything that could escape the log dir is encoded
+    static String directoryName(String room) {
+        return URLEncoder.encode(room, StandardCharsets.UTF_8).replace(".", "%2E").replace("*", "%2A");
+    }
+
+    static String roomName(Path dir) {
+        return URLDecoder.decode(dir.getFileName().toString(), StandardCharsets.UTF_8);
+    }
+
+    static RoomLog open(Path root, String room, int segmentBytes) throws IOException {
+        RoomLog log = new RoomLog(room, root.resolve(directoryName(room)), segmentBytes);
+        Files.createDirectories(log.dir);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(log.dir)) {
+            files = listing.filter(f -> f.getFileName().toString().endsWith(".log"))
+                    .sorted(Comparator.comparingLong(LogSegment::firstSequence))
+                    .collect(Collectors.toList());
+        }
+        if (!files.isEmpty()) {
+            for (Path file : files.subList(0, files.size() - 1)) {
+                log.sealed.put(LogSegment.firstSequence(file), file);
+            }
+            log.active = LogSegment.recover(files.get(files.size() - 1), segmentBytes);
+        }
+        return log;
+    }
+
+    void append(long sequence, long timestamp, String text) throws IOException {
+        reopen();
+        byte[] bytes = LogSegment.encode(text);
+        if (active == null || !active.append(sequence, timestamp, bytes)) {
+            roll(sequence, bytes.length);
+            active.append(sequence, timestamp, bytes);
+        }
+        dirty = true;
+    }
+
+    private void roll(long firstSequence, int recordBytes) throws IOException {
+        if (active != null) {
+            active.seal();
+            sealed.put(active.getFirstSequence(), active.getPath());
+        }
+        active = LogSegment.create(dir, firstSequence, Math.max(segmentBytes, LogSegment.HEADER + recordBytes));
+    }
+
+    // true if there was anything to force
+    boolean sync() {
+        if (!dirty) {
+            return false;
+        }
+        active.force();
+        dirty = false;
+        return true;
+    }
+
+    // drops whole sealed segments, oldest first, that are past the age limit or push the
+    // room over its byte budget; the active segment is never removed
+    void applyRetention(long maxBytes, long maxAgeMillis) throws IOException {
+        long total = active != null ? active.getWrittenBytes() : idleBytes;
+        for (Path file : sealed.values()) {
+            total += Files.size(file);
+        }
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        while (!sealed.isEmpty()) {
+            Map.Entry<Long, Path> first = sealed.firstEntry();
+            FileTime modified = Files.getLastModifiedTime(first.getValue());
+            if (total <= maxBytes && modified.toMillis() >= oldest) {
+                break;
+            }
+            total -= Files.size(first.getValue());
+            Files.deleteIfExists(first.getValue());
+            sealed.remove(first.getKey());
+            opened.remove(first.getKey());
+        }
+    }
+
+    // up to count records just before the given sequence, oldest first: a floor lookup
+    // finds the segment to start in, its sparse index the position
+    List<LogRecord> read(long before, int count) throws IOException {
+        reopen();
+        long from = Math.max(1, before - count);
+        List<LogRecord> out = new ArrayList<>(count);
+        Long start = sealed.floorKey(from);
+        for (Map.Entry<Long, Path> entry : sealed.tailMap(start == null ? Long.MIN_VALUE : start).entrySet()) {
+            if (entry.getKey() >= before || out.size() >= count) {
+                return out;
+            }
+            LogSegment segment = opened.get(entry.getKey());
+            if (segment == null) {
+                segment = LogSegment.openSealed(entry.getValue());
+                opened.put(entry.getKey(), segment);
+            }
+            segment.read(from, before, count, out);
+        }
+        if (active != null && active.getFirstSequence() < before) {
+            active.read(from, before, count, out);
+        }
+        return out;
+    }
+
+    void close() throws IOException {
+        if (active != null) {
+            active.force();
+            active.close();
+        }
+    }
+
+    // forces and unmaps everything, the room has not been used for a while
+    void release() throws IOException {
+        if (active != null) {
+            idleFile = active.getPath();
+            idleBytes = active.getWrittenBytes();
+            idleLastSequence = active.getLastSequence();
+            close();
+            active = null;
+        }
+        opened.clear();
+        dirty = false;
+    }
+
+    private void reopen() throws IOException {
+        if (idleFile != null) {
+            active = LogSegment.recover(idleFile, segmentBytes);
+            idleFile = null;
+        }
+    }
+
+    String getRoom() {
+        return room;
+    }
+
+    long getLastSequence() {
+        return active != null ? active.getLastSequence() : idleLastSequence;
+    }
+}